@@ -6,7 +6,7 @@ export PATH=$JAVA_HOME/bin:$PATH
 export DB_NAME=$USER"_DB"
 # compile the java program
 mkdir $DIR/../classes
-javac -d $DIR/../classes $DIR/../src/ProfNetwork.java
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
 
 #run the java program
 #Use your database name, port number and login
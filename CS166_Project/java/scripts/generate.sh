@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+# compile the java programs
+mkdir -p $DIR/../classes
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#write a synthetic dataset in the layout of ../../data, loadable by create_tables.sql
+#arguments: <output dir> <users> [avg degree] [messages per user] [seed] [threads]
+java -Xmx512m -cp $DIR/../classes DataGenerator "$@"
@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+export DB_NAME=$USER"_DB"
+# compile the java programs
+mkdir -p $DIR/../classes
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#compare B-tree and GIN message indexes on a synthetic MSG_BENCH table
+#optional arguments: [rows] [searches]
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar MessageSearchBenchmark $DB_NAME $PGPORT $USER "$@"
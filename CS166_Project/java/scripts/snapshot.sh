@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+export DB_NAME=$USER"_DB"
+SNAPSHOT=${1:-$DIR/../snapshot}
+# compile the java programs
+mkdir -p $DIR/../classes
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+# dump the network tables, then run the offline analytics on the snapshot
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar SnapshotExporter $DB_NAME $PGPORT $USER $SNAPSHOT
+java -cp $DIR/../classes NetworkSnapshot $SNAPSHOT
@@ -0,0 +1,136 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed-size pool of physical connections shared by many threads.
+ * Connections are opened lazily up to the pool size; a caller that finds
+ * every connection busy waits until one is returned.
+ */
+public class ConnectionPool {
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _size;
+   private final long _waitMillis;
+
+   private final BlockingQueue<Connection> _idle;
+   private final AtomicInteger _open = new AtomicInteger();
+   private volatile boolean _closed = false;
+
+   /**
+    * Creates a pool for one database. No connection is opened yet.
+    *
+    * @param url the JDBC URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param size the maximum number of open connections
+    * @param waitMillis how long borrow waits for a free connection
+    */
+   public ConnectionPool (String url, String user, String passwd, int size, long waitMillis) {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._size = size;
+      this._waitMillis = waitMillis;
+      this._idle = new ArrayBlockingQueue<Connection>(size);
+   }//end ConnectionPool
+
+   public String url () { return this._url; }
+   public int size () { return this._size; }
+
+   /**
+    * Number of connections currently handed out.
+    */
+   public int busy () { return this._open.get() - this._idle.size(); }
+
+   /**
+    * Takes a connection, opening a new one if the pool is not full yet.
+    *
+    * @return a connection that must be given back with release
+    * @throws java.sql.SQLException when no connection frees up in time or
+    *         the database refuses a new one
+    */
+   public Connection borrow () throws SQLException {
+      if (this._closed)
+         throw new SQLException("connection pool is closed");
+      Connection c = this._idle.poll();
+      if (c != null)
+         return c;
+      // grow while below the limit
+      int open;
+      while ((open = this._open.get()) < this._size) {
+         if (this._open.compareAndSet(open, open + 1)) {
+            try {
+               return DriverManager.getConnection(this._url, this._user, this._passwd);
+            } catch (SQLException e) {
+               this._open.decrementAndGet();
+               throw e;
+            }
+         }
+      }
+      try {
+         c = this._idle.poll(this._waitMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      if (c == null)
+         throw new SQLException("timed out waiting for a database connection");
+      return c;
+   }//end borrow
+
+   /**
+    * Gives a connection back. A connection whose last use failed at the
+    * network level should be released with broken set so it is discarded.
+    *
+    * @param c the connection from borrow
+    * @param broken true to close the connection instead of reusing it
+    */
+   public void release (Connection c, boolean broken) {
+      if (c == null)
+         return;
+      if (broken || this._closed || !this._idle.offer(c)) {
+         this._open.decrementAndGet();
+         try {
+            c.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end release
+
+   /**
+    * Closes every idle connection; borrowed ones are closed when released.
+    */
+   public void cleanup () {
+      this._closed = true;
+      Connection c;
+      while ((c = this._idle.poll()) != null) {
+         this._open.decrementAndGet();
+         try {
+            c.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end cleanup
+
+}//end ConnectionPool
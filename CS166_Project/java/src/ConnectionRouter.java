@@ -0,0 +1,361 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends writes to a primary and spreads reads over streaming replicas.
+ *
+ * Reads go to a healthy replica picked round-robin or by fewest reads in
+ * flight. After this session writes, a replica is only used once it has
+ * replayed the write: the router notes the primary's WAL position after
+ * every write, and the health check notes each replica's replay position.
+ * On servers that cannot report positions, reads stay on the primary for
+ * STICKY_MILLIS after a write instead.
+ *
+ * A read that fails on a replica whose connection no longer answers marks
+ * the replica down and is retried on the next choice, ending at the
+ * primary. A background check every HEALTH_MILLIS brings replicas back.
+ * Without replicas every call goes to the primary and nothing else runs.
+ */
+public class ConnectionRouter {
+
+   public static final int ROUND_ROBIN = 0, LEAST_LOADED = 1;
+
+   static final long HEALTH_MILLIS = 2000;
+   static final long STICKY_MILLIS = 5000;
+   static final long UNKNOWN_LSN = -1;
+
+   /**
+    * Work to run on whichever connection the router picks.
+    */
+   public interface Work<T> {
+      T run (Connection c) throws SQLException;
+   }
+
+   /**
+    * One server. The connection is used by callers; the health check has
+    * its own so it never shares a connection with a running query.
+    */
+   static final class Endpoint {
+      final String url;
+      final boolean primary;
+      Connection connection;
+      Connection healthConnection;
+      volatile boolean healthy = true;
+      volatile long replayLsn = UNKNOWN_LSN;
+      final AtomicInteger inFlight = new AtomicInteger();
+      final AtomicInteger reads = new AtomicInteger();
+
+      Endpoint (String url, boolean primary) {
+         this.url = url;
+         this.primary = primary;
+      }
+   }
+
+   private final String _user;
+   private final String _passwd;
+   private final int _policy;
+   private final Endpoint _primary;
+   private final List<Endpoint> _replicas = new ArrayList<Endpoint>();
+   private final AtomicInteger _next = new AtomicInteger();
+   private ScheduledExecutorService _health;
+
+   // where the last write of this session left the primary
+   private volatile long _writeLsn = UNKNOWN_LSN;
+   private volatile long _lastWrite = 0;
+
+   /**
+    * Creates a router with only a primary; add replicas with addReplica.
+    *
+    * @param primaryUrl the JDBC URL of the primary
+    * @param user the user name used to login to the databases
+    * @param passwd the user login password
+    * @param policy ROUND_ROBIN or LEAST_LOADED
+    */
+   public ConnectionRouter (String primaryUrl, String user, String passwd, int policy) {
+      this._user = user;
+      this._passwd = passwd;
+      this._policy = policy;
+      this._primary = new Endpoint(primaryUrl, true);
+   }//end ConnectionRouter
+
+   /**
+    * Adds a replica and starts the health check on the first one.
+    */
+   public synchronized void addReplica (String url) {
+      this._replicas.add(new Endpoint(url, false));
+      if (this._health == null) {
+         this._health = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread (Runnable r) {
+               Thread t = new Thread(r, "replica-health");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+         this._health.scheduleWithFixedDelay(new Runnable() {
+            public void run () { checkReplicas(); }
+         }, 0, HEALTH_MILLIS, TimeUnit.MILLISECONDS);
+      }
+   }//end addReplica
+
+   /**
+    * The primary's connection, opened on first use.
+    */
+   public synchronized Connection primary () throws SQLException {
+      if (this._primary.connection == null)
+         this._primary.connection = DriverManager.getConnection(this._primary.url, this._user, this._passwd);
+      return this._primary.connection;
+   }
+
+   /**
+    * A replica's connection, opened on first use. The connect runs without
+    * the router's lock: a replica that does not answer would otherwise hold
+    * up every write and primary read until the connect times out.
+    */
+   private Connection connection (Endpoint e) throws SQLException {
+      synchronized (this) {
+         if (e.connection != null)
+            return e.connection;
+      }
+      Connection c = DriverManager.getConnection(e.url, this._user, this._passwd);
+      Connection first;
+      synchronized (this) {
+         if (e.connection == null)
+            e.connection = c;
+         first = e.connection;
+      }
+      // another read connected first
+      if (first != c)
+         close(c);
+      return first;
+   }
+
+   /* ---------------------------------- routing ------------------------------ */
+
+   /**
+    * Runs a statement that changes data on the primary and records how far
+    * it moved the primary, for read-your-writes.
+    */
+   public <T> T write (Work<T> work) throws SQLException {
+      T result = work.run(primary());
+      this._lastWrite = System.currentTimeMillis();
+      if (!this._replicas.isEmpty())
+         this._writeLsn = currentLsn();
+      return result;
+   }//end write
+
+   /**
+    * Runs a query on the primary regardless of replicas, e.g. to read a
+    * value the next write depends on.
+    */
+   public <T> T readPrimary (Work<T> work) throws SQLException {
+      return work.run(primary());
+   }
+
+   /**
+    * Runs a query on a replica that has seen this session's writes, or on
+    * the primary when there is none.
+    */
+   public <T> T read (Work<T> work) throws SQLException {
+      List<Endpoint> tried = new ArrayList<Endpoint>();
+      while (true) {
+         Endpoint e = choose(tried);
+         if (e == null)
+            return work.run(primary());
+         e.inFlight.incrementAndGet();
+         try {
+            T result = work.run(connection(e));
+            e.reads.incrementAndGet();
+            return result;
+         } catch (SQLException ex) {
+            // a query error would fail on the primary too; only a dead
+            // replica is worth failing over from
+            if (alive(e))
+               throw ex;
+            markDown(e);
+            tried.add(e);
+         } finally {
+            e.inFlight.decrementAndGet();
+         }
+      }
+   }//end read
+
+   private Endpoint choose (List<Endpoint> tried) {
+      List<Endpoint> candidates = new ArrayList<Endpoint>();
+      synchronized (this) {
+         for (Endpoint e : this._replicas)
+            if (e.healthy && !tried.contains(e) && caughtUp(e))
+               candidates.add(e);
+      }
+      if (candidates.isEmpty())
+         return null;
+      int start = (this._next.getAndIncrement() & Integer.MAX_VALUE) % candidates.size();
+      if (this._policy == ROUND_ROBIN)
+         return candidates.get(start);
+      Endpoint best = null;
+      for (int i = 0; i < candidates.size(); ++i) {
+         Endpoint e = candidates.get((start + i) % candidates.size());
+         if (best == null || e.inFlight.get() < best.inFlight.get())
+            best = e;
+      }
+      return best;
+   }
+
+   private boolean caughtUp (Endpoint e) {
+      if (this._lastWrite == 0)
+         return true;
+      if (this._writeLsn != UNKNOWN_LSN && e.replayLsn != UNKNOWN_LSN)
+         return e.replayLsn >= this._writeLsn;
+      return System.currentTimeMillis() - this._lastWrite > STICKY_MILLIS;
+   }
+
+   private boolean alive (Endpoint e) {
+      try {
+         Statement stmt = connection(e).createStatement();
+         try {
+            stmt.executeQuery("SELECT 1").close();
+            return true;
+         } finally {
+            stmt.close();
+         }
+      } catch (SQLException ex) {
+         return false;
+      }
+   }
+
+   private synchronized void markDown (Endpoint e) {
+      e.healthy = false;
+      e.replayLsn = UNKNOWN_LSN;
+      close(e.connection);
+      e.connection = null;
+      System.err.println("Replica " + e.url + " is down, reading from the primary");
+   }
+
+   /* ------------------------------- health checks --------------------------- */
+
+   private long currentLsn () {
+      try {
+         return lsn(primary(), "SELECT pg_current_wal_lsn()");
+      } catch (SQLException e) {
+         // before PostgreSQL 10, or not allowed: fall back to STICKY_MILLIS
+         return UNKNOWN_LSN;
+      }
+   }
+
+   private static long lsn (Connection c, String sql) throws SQLException {
+      Statement stmt = c.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(sql);
+         String s = rs.next() ? rs.getString(1) : null;
+         rs.close();
+         return parseLsn(s);
+      } finally {
+         stmt.close();
+      }
+   }
+
+   /**
+    * Turns a WAL position such as 16/B374D848 into a comparable number.
+    */
+   static long parseLsn (String s) {
+      if (s == null)
+         return UNKNOWN_LSN;
+      int slash = s.indexOf('/');
+      if (slash < 0)
+         return UNKNOWN_LSN;
+      return (Long.parseLong(s.substring(0, slash), 16) << 32) | Long.parseLong(s.substring(slash + 1), 16);
+   }
+
+   private void checkReplicas () {
+      List<Endpoint> replicas;
+      synchronized (this) {
+         replicas = new ArrayList<Endpoint>(this._replicas);
+      }
+      for (Endpoint e : replicas) {
+         try {
+            if (e.healthConnection == null)
+               e.healthConnection = DriverManager.getConnection(e.url, this._user, this._passwd);
+            long replay;
+            try {
+               replay = lsn(e.healthConnection, "SELECT pg_last_wal_replay_lsn()");
+            } catch (SQLException old) {
+               // the connection may still be fine on an older server
+               Statement stmt = e.healthConnection.createStatement();
+               try {
+                  stmt.executeQuery("SELECT 1").close();
+               } finally {
+                  stmt.close();
+               }
+               replay = UNKNOWN_LSN;
+            }
+            e.replayLsn = replay;
+            if (!e.healthy) {
+               e.healthy = true;
+               System.err.println("Replica " + e.url + " is back");
+            }
+         } catch (SQLException ex) {
+            close(e.healthConnection);
+            e.healthConnection = null;
+            if (e.healthy)
+               markDown(e);
+         }
+      }
+   }//end checkReplicas
+
+   /**
+    * Reads served by each endpoint so far, for the routing report.
+    */
+   public synchronized String describe () {
+      StringBuilder sb = new StringBuilder("primary " + this._primary.url);
+      for (Endpoint e : this._replicas)
+         sb.append(String.format("%nreplica %s %s, %d reads", e.url, e.healthy ? "up" : "down", e.reads.get()));
+      return sb.toString();
+   }
+
+   private static void close (Connection c) {
+      try {
+         if (c != null)
+            c.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }
+
+   /**
+    * Stops the health check and closes every connection.
+    */
+   public synchronized void cleanup () {
+      if (this._health != null)
+         this._health.shutdownNow();
+      close(this._primary.connection);
+      this._primary.connection = null;
+      for (Endpoint e : this._replicas) {
+         close(e.connection);
+         close(e.healthConnection);
+         e.connection = null;
+      }
+   }//end cleanup
+
+}//end ConnectionRouter
@@ -0,0 +1,383 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a synthetic ProfNetwork dataset of any size in the CSV layout of
+ * CS166_Project/data, plus a message.csv for the MESSAGE table, so that
+ * create_tables.sql can load it unchanged.
+ *
+ * Connections follow the Chung-Lu model: user rank i has expected degree
+ * proportional to (i + 1)^(-1/(alpha-1)), which gives a power-law degree
+ * distribution with exponent alpha, and each pair is linked with
+ * probability w_i * w_j / sum(w). Pairs are visited once, by the smaller
+ * rank, skipping ahead geometrically (Miller and Hagberg), so there are no
+ * duplicate or reverse rows and the work is proportional to the edges.
+ * Ranks are mapped to user numbers by a keyed Feistel permutation, so hubs
+ * are spread over the file and no per-user table is kept.
+ *
+ * Ranks are cut into fixed chunks, each generated with its own seeded
+ * Random on a worker thread and written in chunk order. The output depends
+ * only on the arguments and seed, never on the thread count, and at most
+ * a few chunks per thread are held in memory.
+ */
+public class DataGenerator {
+
+   static final int CHUNK = 2048;
+   static final double ALPHA = 2.5;                      // degree distribution exponent
+   static final double ACCEPT = 0.60, REQUEST = 0.25;   // the rest is Reject
+   static final int MAX_MESSAGES = 64;                   // msgId = user * MAX_MESSAGES + k
+
+   static final String[] FIRST = {
+      "Giovani", "Kallie", "Magnus", "Lorine", "Makenna", "Aida", "Forrest", "Krystina", "Luis",
+      "Jazmyn", "Ayden", "Harrison", "Arjun", "Jordane", "Verner", "Alden", "Maria", "Wei", "Priya",
+      "Omar", "Sofia", "Kenji", "Amara", "Diego", "Elena", "Tariq", "Nora", "Hugo", "Ines", "Malik" };
+   static final String[] LAST = {
+      "Terry", "Johns", "Klein", "Hickle", "Zboncak", "Ortiz", "Heathcote", "Toy", "Feil", "Schumm",
+      "Weimann", "Nguyen", "Patel", "Garcia", "Kim", "Okafor", "Rossi", "Silva", "Cohen", "Larsen" };
+   static final String[] ROLES = {
+      "Staff Scientist", "Nuclear Power Engineer", "Legal Assistant", "Senior Financial Analyst",
+      "GIS Technical Architect", "Project Manager", "Structural Engineer", "Speech Pathologist",
+      "Librarian", "Information Systems Manager", "Desktop Support Technician", "Teacher",
+      "Pharmacist", "Food Chemist", "Financial Analyst", "Editor", "Assistant Manager",
+      "Social Worker", "Registered Nurse", "Senior Developer", "Financial Advisor", "Data Analyst" };
+   static final String[] MAJORS = {
+      "biology", "mbbs", "civil", "mechanical", "agriculture", "chemistry", "english", "history",
+      "physics", "eletrical", "computer science", "economics" };
+   static final String[] DEGREES = { "bachelor", "master", "doctrate" };
+   static final String[] SYLLABLES = {
+      "ba", "bble", "op", "ia", "twit", "ter", "bridge", "kwi", "nu", "ty", "op", "ly", "zoo",
+      "mi", "xo", "sha", "qiao", "vee", "jam", "rhyn", "oba", "ski", "dab", "feed", "lin", "yo" };
+   static final String[] WORDS = {
+      "hello", "meeting", "project", "tomorrow", "thanks", "great", "idea", "lunch", "review",
+      "deadline", "report", "call", "team", "update", "question", "offer", "resume", "interview",
+      "congrats", "welcome", "connect", "network", "job", "opening", "referral", "conference" };
+
+   private final File _dir;
+   private final int _users;
+   private final double _avgMessages;
+   private final long _seed;
+
+   // Chung-Lu weights are _scale * (rank + 1)^(-_beta)
+   private final double _beta;
+   private final double _scale;
+   private final double _total;
+   // Feistel permutation over [0, 4^_halfBits) restricted to [0, _users)
+   private final int _halfBits;
+
+   public DataGenerator (File dir, int users, double avgDegree, double avgMessages, long seed) {
+      this._dir = dir;
+      this._users = users;
+      this._avgMessages = avgMessages;
+      this._seed = seed;
+      this._beta = 1.0 / (ALPHA - 1.0);
+      double raw = 0;
+      for (int i = 0; i < users; ++i)
+         raw += Math.pow(i + 1, -this._beta);
+      this._total = (double) users * avgDegree;
+      this._scale = this._total / raw;
+      int bits = 1;
+      while ((1L << (2 * bits)) < users) ++bits;
+      this._halfBits = bits;
+   }//end DataGenerator
+
+   /* --------------------------------- helpers ------------------------------- */
+
+   static long mix (long h) {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+   }
+
+   double weight (int rank) {
+      return this._scale * Math.pow(rank + 1, -this._beta);
+   }
+
+   /**
+    * The user number of a rank; a bijection on [0, users).
+    */
+   int user (int rank) {
+      long x = rank;
+      do {
+         x = feistel(x);
+      } while (x >= this._users);   // cycle-walk back into range
+      return (int) x;
+   }
+
+   private long feistel (long x) {
+      long mask = (1L << this._halfBits) - 1;
+      long left = x >>> this._halfBits, right = x & mask;
+      for (int round = 0; round < 4; ++round) {
+         long f = mix(right ^ (this._seed + round * 0x9e3779b97f4a7c15L)) & mask;
+         long next = left ^ f;
+         left = right;
+         right = next;
+      }
+      return (left << this._halfBits) | right;
+   }
+
+   /**
+    * A rank drawn with probability proportional to its weight, by inverting
+    * the continuous approximation of the weight CDF.
+    */
+   int weightedRank (Random r) {
+      double a = 1.0 - this._beta;
+      double lo = 1.0, hi = Math.pow(this._users + 1.0, a);
+      double x = Math.pow(lo + r.nextDouble() * (hi - lo), 1.0 / a) - 1.0;
+      return Math.min(this._users - 1, Math.max(0, (int) x));
+   }
+
+   static String userId (int u) {
+      long h = mix(u * 0x9e3779b97f4a7c15L);
+      String first = FIRST[(int) ((h >>> 1) % FIRST.length)];
+      String last = LAST[(int) ((h >>> 17) % LAST.length)];
+      char sep = (h & 1) == 0 ? '_' : '.';
+      return first + sep + last + u;
+   }
+
+   static String word (Random r, String[] pool) {
+      return pool[r.nextInt(pool.length)];
+   }
+
+   // a made-up proper noun, e.g. Babbleopia, from a Zipf-ish pool of n names
+   static String name (Random r, int n, int salt) {
+      int k = (int) Math.min(n - 1, Math.floor(Math.pow(n, r.nextDouble())) - 1);
+      long h = mix(k * 31L + salt);
+      StringBuilder sb = new StringBuilder();
+      int parts = 2 + (int) ((h >>> 60) & 1);
+      for (int i = 0; i < parts; ++i)
+         sb.append(SYLLABLES[(int) ((h >>> (8 * i)) & 0xff) % SYLLABLES.length]);
+      sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+      return sb.toString();
+   }
+
+   static void date (StringBuilder sb, int year, Random r) {
+      sb.append(1 + r.nextInt(12)).append('/').append(1 + r.nextInt(28)).append('/').append(year);
+   }
+
+   /* --------------------------------- a chunk ------------------------------- */
+
+   /**
+    * Generates the rows of ranks [from, to) for every table.
+    */
+   byte[][] chunk (int index, int from, int to) {
+      Random r = new Random(mix(this._seed ^ (index * 0xbf58476d1ce4e5b9L)));
+      StringBuilder usr = new StringBuilder(), con = new StringBuilder(), work = new StringBuilder(),
+                    edu = new StringBuilder(), msg = new StringBuilder();
+      int[] friends = new int[64];
+      for (int rank = from; rank < to; ++rank) {
+         int u = user(rank);
+         String id = userId(u);
+         String first = FIRST[r.nextInt(FIRST.length)], last = LAST[r.nextInt(LAST.length)];
+         usr.append(id).append(',').append(word(r, LAST)).append(r.nextInt(1000)).append(',')
+            .append(first).append('.').append(last).append(u).append('@').append(name(r, 500, 7).toLowerCase()).append(".com,")
+            .append(first).append(' ').append(last).append(',');
+         date(usr, 1940 + r.nextInt(65), r);
+         usr.append('\n');
+
+         // connections to higher ranks, Miller-Hagberg skipping
+         int nf = 0;
+         double wu = weight(rank);
+         int v = rank + 1;
+         double p = v < this._users ? Math.min(1.0, wu * weight(v) / this._total) : 0;
+         while (v < this._users && p > 0) {
+            if (p < 1.0)
+               v += (int) Math.floor(Math.log(1.0 - r.nextDouble()) / Math.log(1.0 - p));
+            if (v >= this._users) break;
+            double q = Math.min(1.0, wu * weight(v) / this._total);
+            if (r.nextDouble() < q / p) {
+               int other = user(v);
+               double s = r.nextDouble();
+               String status = s < ACCEPT ? "Accept" : s < ACCEPT + REQUEST ? "Request" : "Reject";
+               boolean outgoing = r.nextBoolean();
+               con.append(userId(outgoing ? u : other)).append(',').append(userId(outgoing ? other : u))
+                  .append(',').append(status).append('\n');
+               if (status.equals("Accept")) {
+                  if (nf == friends.length) friends = Arrays.copyOf(friends, nf * 2);
+                  friends[nf++] = other;
+               }
+            }
+            p = q;
+            ++v;
+         }
+
+         // work history, oldest first so the primary key never repeats
+         int jobs = r.nextInt(4);
+         int year = 1960 + r.nextInt(50);
+         for (int j = 0; j < jobs; ++j) {
+            int end = year + 1 + r.nextInt(8);
+            work.append(id).append(',').append(name(r, 20000, 11)).append(',').append(word(r, ROLES))
+                .append(',').append(name(r, 3000, 13)).append(',');
+            date(work, year, r);
+            work.append(',');
+            if (j < jobs - 1 || r.nextInt(3) > 0) date(work, end, r);
+            work.append('\n');
+            year = end;
+         }
+
+         // education, one row per degree so (major, degree) never repeats
+         int degrees = r.nextInt(3);
+         int start = 1950 + r.nextInt(55);
+         for (int d = 0; d < degrees; ++d) {
+            int end = start + 2 + r.nextInt(4);
+            edu.append(id).append(',').append(name(r, 2000, 17)).append(',').append(word(r, MAJORS))
+               .append(',').append(DEGREES[d]).append(',');
+            date(edu, start, r);
+            edu.append(',');
+            date(edu, end, r);
+            edu.append('\n');
+            start = end;
+         }
+
+         // messages, mostly to friends found above, else to a weighted user
+         int n = Math.min(MAX_MESSAGES, (int) (-Math.log(1.0 - r.nextDouble()) * this._avgMessages));
+         for (int k = 0; k < n; ++k) {
+            int to2 = nf > 0 && r.nextInt(4) > 0 ? friends[r.nextInt(nf)] : user(weightedRank(r));
+            // the weighted draw can land on the sender
+            while (to2 == u && this._users > 1)
+               to2 = user(weightedRank(r));
+            msg.append((long) u * MAX_MESSAGES + k).append(',').append(id).append(',').append(userId(to2)).append(',');
+            int words = 3 + r.nextInt(20);
+            for (int w = 0; w < words; ++w) {
+               if (w > 0) msg.append(' ');
+               msg.append(word(r, WORDS));
+            }
+            msg.append(',');
+            date(msg, 2018 + r.nextInt(5), r);
+            msg.append(' ').append(r.nextInt(24)).append(':');
+            int minute = r.nextInt(60);
+            msg.append(minute < 10 ? "0" : "").append(minute).append(',');
+            double s = r.nextDouble();
+            msg.append(s < 0.7 ? 0 : 1 + r.nextInt(3)).append(',').append(r.nextBoolean() ? "Sent" : "Read").append('\n');
+         }
+      }
+      return new byte[][] { bytes(usr), bytes(con), bytes(work), bytes(edu), bytes(msg) };
+   }//end chunk
+
+   private static byte[] bytes (StringBuilder sb) {
+      try {
+         return sb.toString().getBytes("UTF-8");
+      } catch (java.io.UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /* ---------------------------------- driver ------------------------------- */
+
+   static final String[] FILES = { "USR.csv", "connection.csv", "work_ex.csv", "edu_det.csv", "message.csv" };
+   static final String[] HEADERS = {
+      "User Id,Password,email,Full Name,dateofbirth",
+      "userid,connectionid,status",
+      "userId,company,role,location,startDate,endDate",
+      "userid,instituitionName,major,degree,startdate,enddate",
+      "msgId,senderId,receiverId,contents,sendTime,deleteStatus,status" };
+
+   /**
+    * Generates every chunk on the given number of threads and writes them
+    * in order. Returns the bytes written per file.
+    */
+   public long[] generate (int threads) throws IOException, InterruptedException {
+      if ((long) this._users * MAX_MESSAGES > Integer.MAX_VALUE)
+         throw new IllegalArgumentException("msgId would overflow integer beyond "
+                                            + (Integer.MAX_VALUE / MAX_MESSAGES) + " users");
+      this._dir.mkdirs();
+      OutputStream[] out = new OutputStream[FILES.length];
+      long[] written = new long[FILES.length];
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+         for (int f = 0; f < FILES.length; ++f) {
+            out[f] = new BufferedOutputStream(new FileOutputStream(new File(this._dir, FILES[f])), 1 << 16);
+            byte[] header = (HEADERS[f] + "\n").getBytes("UTF-8");
+            out[f].write(header);
+            written[f] += header.length;
+         }
+         // a bounded window of chunks in flight keeps memory flat
+         ArrayDeque<Future<byte[][]>> window = new ArrayDeque<Future<byte[][]>>();
+         int chunks = (this._users + CHUNK - 1) / CHUNK, next = 0;
+         while (next < chunks || !window.isEmpty()) {
+            while (next < chunks && window.size() < threads * 4) {
+               final int index = next++;
+               final int from = index * CHUNK, to = Math.min(this._users, from + CHUNK);
+               window.add(pool.submit(new Callable<byte[][]>() {
+                  public byte[][] call () { return chunk(index, from, to); }
+               }));
+            }
+            byte[][] rows;
+            try {
+               rows = window.poll().get();
+            } catch (ExecutionException e) {
+               throw new IOException(e.getCause());
+            }
+            for (int f = 0; f < FILES.length; ++f) {
+               out[f].write(rows[f]);
+               written[f] += rows[f].length;
+            }
+         }
+      } finally {
+         pool.shutdownNow();
+         for (OutputStream o : out)
+            if (o != null) o.close();
+      }
+      return written;
+   }//end generate
+
+   /**
+    * @param args <output dir> <users> [avg degree] [messages per user] [seed] [threads]
+    */
+   public static void main (String[] args) {
+      if (args.length < 2 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <output dir> <users> [avg degree] [messages per user] [seed] [threads]");
+         return;
+      }//end if
+
+      try {
+         File dir = new File(args[0]);
+         int users = Integer.parseInt(args[1]);
+         double degree = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+         double messages = args.length > 3 ? Double.parseDouble(args[3]) : 5;
+         long seed = args.length > 4 ? Long.parseLong(args[4]) : 166;
+         int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+         long start = System.nanoTime();
+         DataGenerator g = new DataGenerator(dir, users, degree, messages, seed);
+         long[] written = g.generate(threads);
+         double secs = (System.nanoTime() - start) / 1e9;
+         for (int f = 0; f < FILES.length; ++f)
+            System.out.printf("%-16s %,d bytes%n", FILES[f], written[f]);
+         System.out.printf("%d users on %d threads in %.2f s%n", users, threads, secs);
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+}//end DataGenerator
@@ -0,0 +1,545 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Faceted directory search over work and education history: "who worked at
+ * company X as role Y", "who studied major Z at institution W", and how the
+ * matching users spread over every other facet.
+ *
+ * Each WORK_EXPR and EDUCATIONAL_DETAILS row gets an int row id, and each
+ * facet value (company, role, location, institution, major, degree) a
+ * posting list: the sorted int array of rows holding that value. Values are
+ * matched after trimming and ignoring case. Facets of the same table are
+ * intersected at row level, so company and role must be on the same row;
+ * the rows are then mapped to dictionary-encoded user ids and intersected
+ * with the other table's users. Counts per facet value are the number of
+ * matching users with a matching row holding that value.
+ *
+ * After a profile write the user's rows are reread: the old ones are removed
+ * from their posting lists and the new ones appended, so the index follows
+ * writes without a rebuild. Once more than half of a table's rows are such
+ * dead rows, the live ones are numbered again from 0 and the arrays shrink.
+ */
+public class DirectoryIndex {
+
+   public static final int COMPANY = 0, ROLE = 1, LOCATION = 2,
+                           INSTITUTION = 3, MAJOR = 4, DEGREE = 5;
+   public static final int FACETS = 6;
+   public static final String[] FACET_NAMES = {
+      "company", "role", "location", "institution", "major", "degree" };
+
+   static final int WORK = 0, EDUCATION = 1;
+   static final int PER_TABLE = 3;
+   // tables smaller than this are not worth compacting
+   static final int COMPACT_MIN_ROWS = 1024;
+
+   /**
+    * One table's rows. Facet f of the index is column f % 3 of table f / 3.
+    */
+   static final class Table {
+      IntList rowUser = new IntList();
+      IntList rowValues = new IntList();           // PER_TABLE value ids per row
+      final BitSet deleted = new BitSet();         // rows removed since the last compact
+      final List<IntList> userRows = new ArrayList<IntList>();
+      int live;
+   }
+
+   /**
+    * Users and facet counts of one search.
+    */
+   public static final class Result {
+      public final int total;
+      public final List<String> users;
+      public final List<List<String>> facetValues;
+      public final List<int[]> facetCounts;
+
+      Result (int total, List<String> users, List<List<String>> values, List<int[]> counts) {
+         this.total = total;
+         this.users = users;
+         this.facetValues = values;
+         this.facetCounts = counts;
+      }
+   }
+
+   private final Map<String, Integer> _userIds = new HashMap<String, Integer>();
+   private final List<String> _users = new ArrayList<String>();
+   private final Table[] _tables = { new Table(), new Table() };
+
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private final Map<String, Integer>[] _valueIds = new Map[FACETS];
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private final List<String>[] _values = new List[FACETS];
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private final List<IntList>[] _postings = new List[FACETS];
+
+   // scratch for counting each value once per user
+   private final int[][] _seen = new int[FACETS][];
+   private int _tick;
+
+   public DirectoryIndex () {
+      for (int f = 0; f < FACETS; ++f) {
+         this._valueIds[f] = new HashMap<String, Integer>();
+         this._values[f] = new ArrayList<String>();
+         this._postings[f] = new ArrayList<IntList>();
+         this._seen[f] = new int[16];
+      }
+   }
+
+   /**
+    * Reads WORK_EXPR and EDUCATIONAL_DETAILS through the menu's connection.
+    */
+   public static DirectoryIndex load (ProfNetwork esql) throws SQLException {
+      DirectoryIndex d = new DirectoryIndex();
+      ResultTable work = esql.executeQueryAndReturnTable(
+         "SELECT W.userId, W.company, W.role, W.location FROM WORK_EXPR W");
+      ResultTable edu = esql.executeQueryAndReturnTable(
+         "SELECT E.userId, E.instituitionName, E.major, E.degree FROM EDUCATIONAL_DETAILS E");
+      d.addRows(WORK, work);
+      d.addRows(EDUCATION, edu);
+      return d;
+   }//end load
+
+   /**
+    * Builds the index from a snapshot written by SnapshotExporter.
+    */
+   public static DirectoryIndex load (NetworkSnapshot snap) {
+      DirectoryIndex d = new DirectoryIndex();
+      int[] v = new int[PER_TABLE];
+      for (int r = 0; r < snap.workCount(); ++r) {
+         v[0] = d.valueId(COMPANY, snapString(snap, snap.work(r, NetworkSnapshot.WORK_COMPANY)));
+         v[1] = d.valueId(ROLE, snapString(snap, snap.work(r, NetworkSnapshot.WORK_ROLE)));
+         v[2] = d.valueId(LOCATION, snapString(snap, snap.work(r, NetworkSnapshot.WORK_LOCATION)));
+         d.addRow(WORK, d.userId(snap.userId(snap.work(r, NetworkSnapshot.WORK_USER))), v);
+      }
+      for (int r = 0; r < snap.educationCount(); ++r) {
+         v[0] = d.valueId(INSTITUTION, snapString(snap, snap.education(r, NetworkSnapshot.EDU_INSTITUTION)));
+         v[1] = d.valueId(MAJOR, snapString(snap, snap.education(r, NetworkSnapshot.EDU_MAJOR)));
+         v[2] = d.valueId(DEGREE, snapString(snap, snap.education(r, NetworkSnapshot.EDU_DEGREE)));
+         d.addRow(EDUCATION, d.userId(snap.userId(snap.education(r, NetworkSnapshot.EDU_USER))), v);
+      }
+      return d;
+   }//end load
+
+   private static String snapString (NetworkSnapshot snap, int id) {
+      return id == NetworkSnapshot.NO_STRING ? null : snap.string(id);
+   }
+
+   private void addRows (int table, ResultTable rows) {
+      int[] v = new int[PER_TABLE];
+      for (int r = 0; r < rows.size(); ++r) {
+         for (int k = 0; k < PER_TABLE; ++k)
+            v[k] = valueId(table * PER_TABLE + k, rows.getString(r, k + 1));
+         addRow(table, userId(rows.getString(r, 0)), v);
+      }
+   }
+
+   /* -------------------------------- dictionaries --------------------------- */
+
+   private int userId (String userId) {
+      String key = userId.trim();
+      Integer id = this._userIds.get(key);
+      if (id == null) {
+         id = this._users.size();
+         this._userIds.put(key, id);
+         this._users.add(key);
+      }
+      return id;
+   }
+
+   private static String key (String value) {
+      return value.trim().toLowerCase();
+   }
+
+   // -1 for a null or blank value, which no posting list holds
+   private int valueId (int facet, String value) {
+      if (value == null || value.trim().isEmpty())
+         return -1;
+      String key = key(value);
+      Integer id = this._valueIds[facet].get(key);
+      if (id == null) {
+         id = this._values[facet].size();
+         this._valueIds[facet].put(key, id);
+         this._values[facet].add(value.trim());
+         this._postings[facet].add(new IntList());
+      }
+      return id;
+   }
+
+   /* ---------------------------------- writes ------------------------------- */
+
+   private void addRow (int table, int user, int[] values) {
+      Table t = this._tables[table];
+      int row = t.rowUser.size;
+      t.rowUser.add(user);
+      for (int k = 0; k < PER_TABLE; ++k) {
+         t.rowValues.add(values[k]);
+         // row ids only grow, so appending keeps every posting list sorted
+         if (values[k] >= 0)
+            this._postings[table * PER_TABLE + k].get(values[k]).add(row);
+      }
+      while (t.userRows.size() <= user)
+         t.userRows.add(null);
+      if (t.userRows.get(user) == null)
+         t.userRows.set(user, new IntList());
+      t.userRows.get(user).add(row);
+      ++t.live;
+   }
+
+   private void removeRows (int table, int user) {
+      Table t = this._tables[table];
+      IntList rows = user < t.userRows.size() ? t.userRows.get(user) : null;
+      if (rows == null)
+         return;
+      for (int i = 0; i < rows.size; ++i) {
+         int row = rows.data[i];
+         for (int k = 0; k < PER_TABLE; ++k) {
+            int v = t.rowValues.data[row * PER_TABLE + k];
+            if (v >= 0)
+               this._postings[table * PER_TABLE + k].get(v).remove(row);
+         }
+         t.deleted.set(row);
+         --t.live;
+      }
+      t.userRows.set(user, null);
+   }
+
+   /**
+    * Replaces everything known about one user with freshly read rows, laid
+    * out as in load: userId, then the three facet columns.
+    */
+   public synchronized void replaceUser (String userId, ResultTable work, ResultTable edu) {
+      int user = userId(userId);
+      removeRows(WORK, user);
+      removeRows(EDUCATION, user);
+      addRows(WORK, work);
+      addRows(EDUCATION, edu);
+      for (int table = 0; table < 2; ++table) {
+         Table t = this._tables[table];
+         if (t.rowUser.size >= COMPACT_MIN_ROWS && t.rowUser.size - t.live > t.live)
+            compact(table);
+      }
+   }
+
+   /**
+    * Drops the deleted rows of a table and numbers the live ones again in
+    * their old order, so posting lists and user rows stay sorted.
+    */
+   private void compact (int table) {
+      Table t = this._tables[table];
+      int[] newRow = new int[t.rowUser.size];
+      IntList rowUser = new IntList();
+      IntList rowValues = new IntList();
+      for (int row = 0; row < t.rowUser.size; ++row) {
+         if (t.deleted.get(row)) {
+            newRow[row] = -1;
+            continue;
+         }
+         newRow[row] = rowUser.size;
+         rowUser.add(t.rowUser.data[row]);
+         for (int k = 0; k < PER_TABLE; ++k)
+            rowValues.add(t.rowValues.data[row * PER_TABLE + k]);
+      }
+      for (int k = 0; k < PER_TABLE; ++k)
+         for (IntList posting : this._postings[table * PER_TABLE + k])
+            posting.renumber(newRow);
+      for (IntList rows : t.userRows)
+         if (rows != null)
+            rows.renumber(newRow);
+      t.rowUser = rowUser;
+      t.rowValues = rowValues;
+      t.deleted.clear();
+   }//end compact
+
+   public synchronized int userCount () { return this._users.size(); }
+   public synchronized int rowCount () { return this._tables[WORK].live + this._tables[EDUCATION].live; }
+
+   /* ---------------------------------- search ------------------------------- */
+
+   /**
+    * Finds the users matching every given facet value.
+    *
+    * @param filters one value per facet, null or blank for any
+    * @param limit how many matching userIds to return
+    * @param top how many values to return per facet, most users first
+    * @return the matches and the facet counts
+    */
+   public synchronized Result search (String[] filters, int limit, int top) {
+      // postings of the filtered facets, per table; null when a value is unknown
+      int[][] matchRows = new int[2][];
+      boolean[] filtered = new boolean[2];
+      boolean empty = false;
+      for (int table = 0; table < 2 && !empty; ++table) {
+         List<IntList> lists = new ArrayList<IntList>();
+         for (int k = 0; k < PER_TABLE; ++k) {
+            String value = filters[table * PER_TABLE + k];
+            if (value == null || value.trim().isEmpty())
+               continue;
+            Integer id = this._valueIds[table * PER_TABLE + k].get(key(value));
+            lists.add(id == null ? new IntList() : this._postings[table * PER_TABLE + k].get(id));
+         }
+         if (lists.isEmpty())
+            continue;
+         filtered[table] = true;
+         matchRows[table] = intersectAll(lists);
+         empty = matchRows[table].length == 0;
+      }
+
+      int[] users;
+      if (empty) {
+         users = new int[0];
+      } else if (!filtered[WORK] && !filtered[EDUCATION]) {
+         users = usersWithRows();
+      } else {
+         users = null;
+         for (int table = 0; table < 2; ++table) {
+            if (!filtered[table]) continue;
+            int[] u = usersOf(table, matchRows[table]);
+            users = users == null ? u : intersect(users, users.length, u, u.length);
+         }
+      }
+
+      List<String> names = new ArrayList<String>(Math.min(limit, users.length));
+      for (int i = 0; i < users.length && i < limit; ++i)
+         names.add(this._users.get(users[i]));
+
+      List<List<String>> facetValues = new ArrayList<List<String>>(FACETS);
+      List<int[]> facetCounts = new ArrayList<int[]>(FACETS);
+      int[][] counts = countFacets(users, filters, filtered, matchRows);
+      for (int f = 0; f < FACETS; ++f) {
+         int[] best = NetworkSnapshot.topK(counts[f], top);
+         List<String> values = new ArrayList<String>();
+         IntList c = new IntList();
+         for (int v : best) {
+            if (counts[f][v] == 0) break;
+            values.add(this._values[f].get(v));
+            c.add(counts[f][v]);
+         }
+         facetValues.add(values);
+         facetCounts.add(c.toArray());
+      }
+      return new Result(users.length, names, facetValues, facetCounts);
+   }//end search
+
+   // smallest list first, so every step shrinks or keeps the candidate set
+   private static int[] intersectAll (List<IntList> lists) {
+      IntList smallest = lists.get(0);
+      for (IntList l : lists)
+         if (l.size < smallest.size) smallest = l;
+      int[] result = smallest.toArray();
+      int size = result.length;
+      for (IntList l : lists) {
+         if (l == smallest) continue;
+         int[] r = intersect(result, size, l.data, l.size);
+         result = r;
+         size = r.length;
+      }
+      return result;
+   }
+
+   /**
+    * Intersects two sorted arrays. When one side is much shorter each of its
+    * values is found by galloping through the longer one, otherwise the two
+    * are merged.
+    */
+   static int[] intersect (int[] a, int aSize, int[] b, int bSize) {
+      if (aSize > bSize)
+         return intersect(b, bSize, a, aSize);
+      int[] out = new int[aSize];
+      int n = 0;
+      if ((long) aSize * 16 < bSize) {
+         int lo = 0;
+         for (int i = 0; i < aSize && lo < bSize; ++i) {
+            int step = 1, hi = lo;
+            while (hi < bSize && b[hi] < a[i]) {
+               lo = hi + 1;
+               hi += step;
+               step <<= 1;
+            }
+            int pos = Arrays.binarySearch(b, lo, Math.min(hi + 1, bSize), a[i]);
+            if (pos >= 0) {
+               out[n++] = a[i];
+               lo = pos + 1;
+            } else {
+               lo = -pos - 1;
+            }
+         }
+      } else {
+         int i = 0, j = 0;
+         while (i < aSize && j < bSize) {
+            if (a[i] < b[j]) ++i;
+            else if (a[i] > b[j]) ++j;
+            else { out[n++] = a[i]; ++i; ++j; }
+         }
+      }
+      return Arrays.copyOf(out, n);
+   }
+
+   // sorted distinct users owning the rows
+   private int[] usersOf (int table, int[] rows) {
+      BitSet seen = new BitSet(this._users.size());
+      for (int row : rows)
+         seen.set(this._tables[table].rowUser.data[row]);
+      return toArray(seen);
+   }
+
+   private int[] usersWithRows () {
+      BitSet seen = new BitSet(this._users.size());
+      for (Table t : this._tables)
+         for (int u = 0; u < t.userRows.size(); ++u)
+            if (t.userRows.get(u) != null) seen.set(u);
+      return toArray(seen);
+   }
+
+   private static int[] toArray (BitSet bits) {
+      int[] out = new int[bits.cardinality()];
+      int n = 0;
+      for (int u = bits.nextSetBit(0); u >= 0; u = bits.nextSetBit(u + 1))
+         out[n++] = u;
+      return out;
+   }
+
+   private int[][] countFacets (int[] users, String[] filters, boolean[] filtered, int[][] matchRows) {
+      int[][] counts = new int[FACETS][];
+      for (int f = 0; f < FACETS; ++f) {
+         counts[f] = new int[this._values[f].size()];
+         if (this._seen[f].length < counts[f].length)
+            this._seen[f] = new int[counts[f].length * 2];
+      }
+      for (int table = 0; table < 2; ++table) {
+         Table t = this._tables[table];
+         // in a filtered table only the matching rows count
+         BitSet allowed = null;
+         if (filtered[table]) {
+            allowed = new BitSet();
+            for (int row : matchRows[table]) allowed.set(row);
+         }
+         for (int u : users) {
+            IntList rows = u < t.userRows.size() ? t.userRows.get(u) : null;
+            if (rows == null) continue;
+            if (++this._tick == Integer.MAX_VALUE) {
+               for (int[] s : this._seen) Arrays.fill(s, 0);
+               this._tick = 1;
+            }
+            for (int i = 0; i < rows.size; ++i) {
+               int row = rows.data[i];
+               if (allowed != null && !allowed.get(row)) continue;
+               for (int k = 0; k < PER_TABLE; ++k) {
+                  int f = table * PER_TABLE + k;
+                  int v = t.rowValues.data[row * PER_TABLE + k];
+                  if (v < 0 || this._seen[f][v] == this._tick) continue;
+                  this._seen[f][v] = this._tick;
+                  counts[f][v]++;
+               }
+            }
+         }
+      }
+      return counts;
+   }//end countFacets
+
+   /**
+    * Growable int array; remove keeps it sorted.
+    */
+   static final class IntList {
+      int[] data = new int[4];
+      int size;
+      void add (int v) {
+         if (this.size == this.data.length)
+            this.data = Arrays.copyOf(this.data, this.size * 2);
+         this.data[this.size++] = v;
+      }
+      void remove (int v) {
+         int i = Arrays.binarySearch(this.data, 0, this.size, v);
+         if (i < 0) return;
+         System.arraycopy(this.data, i + 1, this.data, i, this.size - i - 1);
+         --this.size;
+      }
+      // maps every entry through an increasing map, which keeps it sorted
+      void renumber (int[] map) {
+         for (int i = 0; i < this.size; ++i)
+            this.data[i] = map[this.data[i]];
+      }
+      int size () { return this.size; }
+      int[] toArray () { return Arrays.copyOf(this.data, this.size); }
+   }//end IntList
+
+   /**
+    * Loads a snapshot and runs one search, e.g.
+    * DirectoryIndex snap company=Google role=Engineer
+    *
+    * @param args the snapshot directory, then facet=value pairs
+    */
+   public static void main (String[] args) {
+      if (args.length < 1) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DirectoryIndex.class.getName () +
+            " <snapshot dir> [facet=value ...]");
+         return;
+      }//end if
+
+      try {
+         String[] filters = new String[FACETS];
+         for (int i = 1; i < args.length; ++i) {
+            int eq = args[i].indexOf('=');
+            int f = eq < 0 ? -1 : Arrays.asList(FACET_NAMES).indexOf(args[i].substring(0, eq));
+            if (f < 0) {
+               System.err.println("Unknown facet in " + args[i] + ", use one of " + Arrays.toString(FACET_NAMES));
+               return;
+            }
+            filters[f] = args[i].substring(eq + 1);
+         }
+         long start = System.nanoTime();
+         DirectoryIndex d = load(new NetworkSnapshot(new File(args[0])));
+         long built = System.nanoTime();
+         System.out.printf("Indexed %d rows of %d users in %.2f ms%n", d.rowCount(), d.userCount(),
+                           (built - start) / 1e6);
+
+         Result r = d.search(filters, 20, 5);
+         // a second run without class loading and JIT warmup is the figure to quote
+         long t0 = System.nanoTime();
+         r = d.search(filters, 20, 5);
+         System.out.printf("%d matching users, search took %.3f ms%n", r.total, (System.nanoTime() - t0) / 1e6);
+         print(r);
+      } catch (IOException e) {
+         System.err.println(e.getMessage());
+      }
+   }//end main
+
+   /**
+    * Prints the first matching users and the counts of every facet.
+    */
+   public static void print (Result r) {
+      for (String u : r.users)
+         System.out.println(u);
+      if (r.total > r.users.size())
+         System.out.printf("... and %d more%n", r.total - r.users.size());
+      for (int f = 0; f < FACETS; ++f) {
+         if (r.facetValues.get(f).isEmpty()) continue;
+         System.out.println("\n" + FACET_NAMES[f] + "\tusers");
+         for (int i = 0; i < r.facetValues.get(f).size(); ++i)
+            System.out.println(r.facetValues.get(f).get(i) + "\t" + r.facetCounts.get(f)[i]);
+      }
+   }//end print
+
+}//end DirectoryIndex
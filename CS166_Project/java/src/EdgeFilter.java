@@ -0,0 +1,254 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory copy of which users exist and which (userId, connectionId)
+ * pairs CONNECTION_USR already holds, so a connection request that can only
+ * fail is refused without a round trip.
+ *
+ * Every user gets a small int id. A pair is looked up first in a blocked
+ * Bloom filter keyed on the unordered pair: each key sets K bits inside one
+ * 512-bit block, so a lookup touches one cache line and most pairs that were
+ * never requested stop there. Pairs that pass go to an exact open-addressing
+ * set of directed pairs, which tells a duplicate from a reverse request.
+ *
+ * The filter only learns what this process loads or adds. When another
+ * client sends or answers a request for the logged in user, the
+ * NotificationListener makes ProfNetwork drop the filter and the next check
+ * loads it again; other clients' pairs are missed until then. A user created
+ * elsewhere is reported unknown, which the caller confirms with the database
+ * (see userExists).
+ */
+public class EdgeFilter {
+
+   // outcomes of check
+   public static final int OK = 0, SELF = 1, DUPLICATE = 2, REVERSE = 3, UNKNOWN_USER = 4;
+
+   private static final int BLOCK_LONGS = 8;    // 512 bits
+   private static final int K = 6;              // bits set per key
+   private static final int BITS_PER_KEY = 12;
+
+   private final Map<String, Integer> _ids = new HashMap<String, Integer>();
+   private final BitSet _users = new BitSet();  // ids that are rows of USR
+   private long[] _bloom;
+   private int _blockMask;
+   private int _bloomCapacity;
+
+   private long[] _pairs;                       // directed (from << 32 | to), 0 is empty
+   private int _size;
+
+   /**
+    * Creates an empty filter sized for about the given number of pairs.
+    */
+   public EdgeFilter (int expectedPairs) {
+      int cap = 16;
+      while (cap < expectedPairs * 2) cap <<= 1;
+      this._pairs = new long[cap];
+      sizeBloom(expectedPairs);
+   }//end EdgeFilter
+
+   /**
+    * Reads USR and CONNECTION_USR through the menu's connection.
+    *
+    * @param esql the menu's ProfNetwork
+    * @return the loaded filter
+    * @throws java.sql.SQLException when reading either table fails
+    */
+   public static EdgeFilter load (ProfNetwork esql) throws SQLException {
+      ResultTable users = esql.executeQueryAndReturnTable("SELECT U.userId FROM USR U");
+      ResultTable edges = esql.executeQueryAndReturnTable("SELECT C.userId, C.connectionId FROM CONNECTION_USR C");
+      EdgeFilter f = new EdgeFilter(edges.size());
+      for (int r = 0; r < users.size(); ++r)
+         f.addUser(users.getString(r, 0));
+      for (int r = 0; r < edges.size(); ++r)
+         f.add(edges.getString(r, 0), edges.getString(r, 1));
+      return f;
+   }//end load
+
+   /* ---------------------------------- users -------------------------------- */
+
+   /**
+    * True when the user is known to exist.
+    */
+   public synchronized boolean knowsUser (String userId) {
+      Integer id = userId == null ? null : this._ids.get(userId.trim());
+      return id != null && this._users.get(id);
+   }
+
+   /**
+    * Records a user, e.g. after CreateUser. Returns its id.
+    */
+   public synchronized int addUser (String userId) {
+      int id = id(userId);
+      this._users.set(id);
+      return id;
+   }
+
+   // connectionId has no foreign key, so pairs may name users USR lacks
+   private int id (String userId) {
+      String key = userId.trim();
+      Integer id = this._ids.get(key);
+      if (id == null) {
+         // ids start at 1 so no pair key is 0
+         id = this._ids.size() + 1;
+         this._ids.put(key, id);
+      }
+      return id;
+   }
+
+   /**
+    * Asks the database whether a user the filter does not know exists,
+    * and remembers the answer when it does.
+    */
+   public boolean userExists (ProfNetwork esql, String userId) throws SQLException {
+      if (knowsUser(userId))
+         return true;
+      if (esql.executeQueryAndReturnTable("SELECT U.userId FROM USR U WHERE U.userId = ?", userId.trim()).isEmpty())
+         return false;
+      addUser(userId);
+      return true;
+   }
+
+   /* ---------------------------------- pairs -------------------------------- */
+
+   /**
+    * Says whether a request from one user to another could succeed.
+    *
+    * @return OK, SELF, DUPLICATE (from already asked to), REVERSE (to already
+    *         asked from, answered or not) or UNKNOWN_USER (to is not known)
+    */
+   public synchronized int check (String from, String to) {
+      from = from.trim();
+      to = to.trim();
+      if (from.equals(to))
+         return SELF;
+      Integer a = this._ids.get(from), b = this._ids.get(to);
+      if (b == null || !this._users.get(b))
+         return UNKNOWN_USER;
+      if (a == null || !mightContain(a, b))
+         return OK;
+      if (contains(pair(a, b)))
+         return DUPLICATE;
+      if (contains(pair(b, a)))
+         return REVERSE;
+      return OK;
+   }//end check
+
+   /**
+    * Records a pair that is now in CONNECTION_USR.
+    */
+   public synchronized void add (String from, String to) {
+      int a = id(from), b = id(to);
+      long key = pair(a, b);
+      if (contains(key))
+         return;
+      if ((this._size + 1) * 2 > this._pairs.length)
+         grow();
+      insert(key);
+      ++this._size;
+      if (this._size > this._bloomCapacity) {
+         // rebuild at twice the size to keep the false positive rate down
+         sizeBloom(this._size * 2);
+         for (long p : this._pairs)
+            if (p != 0) setBloom((int) (p >>> 32), (int) p);
+      } else {
+         setBloom(a, b);
+      }
+   }//end add
+
+   /**
+    * Number of distinct directed pairs recorded.
+    */
+   public synchronized int size () { return this._size; }
+
+   private static long pair (int from, int to) {
+      return ((long) from << 32) | (to & 0xffffffffL);
+   }
+
+   private static long mix (long h) {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+   }
+
+   private boolean contains (long key) {
+      int mask = this._pairs.length - 1;
+      for (int i = (int) mix(key) & mask; ; i = (i + 1) & mask) {
+         long p = this._pairs[i];
+         if (p == key) return true;
+         if (p == 0) return false;
+      }
+   }
+
+   private void insert (long key) {
+      int mask = this._pairs.length - 1;
+      int i = (int) mix(key) & mask;
+      while (this._pairs[i] != 0)
+         i = (i + 1) & mask;
+      this._pairs[i] = key;
+   }
+
+   private void grow () {
+      long[] old = this._pairs;
+      this._pairs = new long[old.length * 2];
+      for (long p : old)
+         if (p != 0) insert(p);
+   }
+
+   /* ---------------------------------- bloom -------------------------------- */
+
+   private void sizeBloom (int capacity) {
+      long bits = (long) Math.max(capacity, 64) * BITS_PER_KEY;
+      int blocks = 1;
+      while ((long) blocks * BLOCK_LONGS * 64 < bits) blocks <<= 1;
+      this._bloom = new long[blocks * BLOCK_LONGS];
+      this._blockMask = blocks - 1;
+      this._bloomCapacity = capacity;
+   }
+
+   // both directions map to the same key
+   private static long unordered (int a, int b) {
+      return a < b ? pair(a, b) : pair(b, a);
+   }
+
+   private void setBloom (int a, int b) {
+      probe(a, b, true);
+   }
+
+   private boolean mightContain (int a, int b) {
+      return probe(a, b, false);
+   }
+
+   private boolean probe (int a, int b, boolean set) {
+      long key = unordered(a, b);
+      int base = ((int) mix(key) & this._blockMask) * BLOCK_LONGS;
+      // K nine-bit positions inside the block from a second, independent hash
+      long h = mix(key + 0x9e3779b97f4a7c15L);
+      for (int i = 0; i < K; ++i) {
+         int bit = (int) (h >>> (9 * i)) & 511;
+         long m = 1L << bit;
+         if (set) this._bloom[base + (bit >>> 6)] |= m;
+         else if ((this._bloom[base + (bit >>> 6)] & m) == 0) return false;
+      }
+      return true;
+   }
+
+}//end EdgeFilter
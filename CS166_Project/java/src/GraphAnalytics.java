@@ -0,0 +1,484 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Network-wide metrics over the connection graph: connected components,
+ * friend-count histogram, triangles and clustering coefficient, and how many
+ * of each user's requests are still pending or were rejected.
+ *
+ * The friendship graph is the undirected graph of Accept rows. It is kept as
+ * primitive CSR arrays with sorted, duplicate-free adjacency lists, and every
+ * algorithm runs as fork-join tasks over node ranges.
+ *
+ * Input is either connection.csv (userid,connectionid,status) or a snapshot
+ * directory written by SnapshotExporter.
+ */
+public class GraphAnalytics {
+
+   // node ranges smaller than this are processed by a single task
+   static final int GRAIN = 1 << 12;
+
+   private final ForkJoinPool _pool;
+
+   // node names, may be null when the caller does not need them
+   private String[] _names;
+   private int _nodes;
+
+   // requests each node sent, and how many of them are pending or rejected
+   private int[] _sent;
+   private int[] _pending;
+   private int[] _rejected;
+
+   // undirected accepted-edge graph in CSR form
+   private int[] _offsets;
+   private int[] _adj;
+
+   public GraphAnalytics (int threads) {
+      this._pool = new ForkJoinPool(threads);
+   }
+
+   public int nodeCount () { return this._nodes; }
+   public int edgeCount () { return this._adj.length / 2; }
+   public int degree (int u) { return this._offsets[u + 1] - this._offsets[u]; }
+   public String name (int u) { return this._names == null ? String.valueOf(u) : this._names[u]; }
+
+   /* --------------------------------- loading ------------------------------- */
+
+   /**
+    * Loads connection.csv. Node numbers are assigned in first-seen order.
+    *
+    * @param csv the connection file, with a header line
+    * @throws java.io.IOException when the file cannot be read
+    */
+   public void loadCsv (File csv) throws IOException {
+      Map<String, Integer> ids = new HashMap<String, Integer>();
+      List<String> names = new ArrayList<String>();
+      IntList src = new IntList(), dst = new IntList(), status = new IntList();
+
+      BufferedReader in = new BufferedReader(new FileReader(csv), 1 << 16);
+      try {
+         String line = in.readLine();   // header
+         while ((line = in.readLine()) != null) {
+            int c1 = line.indexOf(','), c2 = line.indexOf(',', c1 + 1);
+            if (c1 < 0 || c2 < 0)
+               continue;
+            src.add(node(ids, names, line.substring(0, c1).trim()));
+            dst.add(node(ids, names, line.substring(c1 + 1, c2).trim()));
+            status.add(NetworkSnapshot.statusCode(line.substring(c2 + 1)));
+         }
+      } finally {
+         in.close();
+      }
+      this._names = names.toArray(new String[names.size()]);
+      build(names.size(), src.toArray(), dst.toArray(), status.toArray());
+   }//end loadCsv
+
+   private static int node (Map<String, Integer> ids, List<String> names, String id) {
+      Integer n = ids.get(id);
+      if (n == null) {
+         n = names.size();
+         ids.put(id, n);
+         names.add(id);
+      }
+      return n;
+   }
+
+   /**
+    * Loads the outgoing edges of a snapshot written by SnapshotExporter.
+    *
+    * @param snap an open snapshot
+    */
+   public void loadSnapshot (NetworkSnapshot snap) {
+      int n = snap.userCount();
+      IntList src = new IntList(), dst = new IntList(), status = new IntList();
+      for (int u = 0; u < n; ++u)
+         for (int e = snap.edgeStart(u), end = snap.edgeEnd(u); e < end; ++e)
+            if (!snap.edgeIncoming(e)) {
+               src.add(u);
+               dst.add(snap.edgeTarget(e));
+               status.add(snap.edgeStatus(e));
+            }
+      this._names = new String[n];
+      for (int u = 0; u < n; ++u)
+         this._names[u] = snap.userId(u);
+      build(n, src.toArray(), dst.toArray(), status.toArray());
+   }//end loadSnapshot
+
+   /**
+    * Builds the request counters and the accepted-edge CSR from parallel
+    * arrays of directed CONNECTION_USR rows.
+    */
+   public void build (int n, int[] src, int[] dst, int[] status) {
+      this._nodes = n;
+      this._sent = new int[n];
+      this._pending = new int[n];
+      this._rejected = new int[n];
+      int[] offsets = new int[n + 1];
+      for (int i = 0; i < src.length; ++i) {
+         this._sent[src[i]]++;
+         if (status[i] == NetworkSnapshot.STATUS_REQUEST) this._pending[src[i]]++;
+         else if (status[i] == NetworkSnapshot.STATUS_REJECT) this._rejected[src[i]]++;
+         else if (status[i] == NetworkSnapshot.STATUS_ACCEPT && src[i] != dst[i]) {
+            offsets[src[i] + 1]++;
+            offsets[dst[i] + 1]++;
+         }
+      }
+      for (int u = 0; u < n; ++u)
+         offsets[u + 1] += offsets[u];
+      int[] fill = Arrays.copyOf(offsets, n);
+      int[] adj = new int[offsets[n]];
+      for (int i = 0; i < src.length; ++i)
+         if (status[i] == NetworkSnapshot.STATUS_ACCEPT && src[i] != dst[i]) {
+            adj[fill[src[i]]++] = dst[i];
+            adj[fill[dst[i]]++] = src[i];
+         }
+
+      // sort every list in parallel, then squeeze out pairs accepted both ways
+      final int[] degrees = new int[n];
+      this._pool.invoke(new SortRows(offsets, adj, degrees, 0, n));
+      int[] compact = new int[n + 1];
+      for (int u = 0; u < n; ++u)
+         compact[u + 1] = compact[u] + degrees[u];
+      int[] packed = new int[compact[n]];
+      for (int u = 0; u < n; ++u)
+         System.arraycopy(adj, offsets[u], packed, compact[u], degrees[u]);
+      this._offsets = compact;
+      this._adj = packed;
+   }//end build
+
+   // sorts and de-duplicates each adjacency list in place
+   static final class SortRows extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      final int[] offsets, adj, degrees;
+      final int lo, hi;
+      SortRows (int[] offsets, int[] adj, int[] degrees, int lo, int hi) {
+         this.offsets = offsets; this.adj = adj; this.degrees = degrees;
+         this.lo = lo; this.hi = hi;
+      }
+      protected void compute () {
+         if (this.hi - this.lo > GRAIN) {
+            int mid = (this.lo + this.hi) >>> 1;
+            invokeAll(new SortRows(this.offsets, this.adj, this.degrees, this.lo, mid),
+                      new SortRows(this.offsets, this.adj, this.degrees, mid, this.hi));
+            return;
+         }
+         for (int u = this.lo; u < this.hi; ++u) {
+            int start = this.offsets[u], end = this.offsets[u + 1];
+            Arrays.sort(this.adj, start, end);
+            int w = start;
+            for (int r = start; r < end; ++r)
+               if (w == start || this.adj[w - 1] != this.adj[r])
+                  this.adj[w++] = this.adj[r];
+            this.degrees[u] = w - start;
+         }
+      }
+   }//end SortRows
+
+   /* ------------------------------ degree histogram ------------------------- */
+
+   /**
+    * Counts users per friend count, one bucket per power of two: bucket 0 is
+    * degree 0, bucket b holds degrees in [2^(b-1), 2^b).
+    */
+   public long[] degreeHistogram () {
+      return this._pool.invoke(new Histogram(0, this._nodes));
+   }
+
+   final class Histogram extends RecursiveTask<long[]> {
+      private static final long serialVersionUID = 1L;
+      final int lo, hi;
+      Histogram (int lo, int hi) { this.lo = lo; this.hi = hi; }
+      protected long[] compute () {
+         if (this.hi - this.lo > GRAIN) {
+            int mid = (this.lo + this.hi) >>> 1;
+            Histogram left = new Histogram(this.lo, mid);
+            left.fork();
+            long[] right = new Histogram(mid, this.hi).compute();
+            long[] result = left.join();
+            for (int b = 0; b < result.length; ++b)
+               result[b] += right[b];
+            return result;
+         }
+         long[] buckets = new long[33];
+         for (int u = this.lo; u < this.hi; ++u) {
+            int d = degree(u);
+            buckets[d == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(d)]++;
+         }
+         return buckets;
+      }
+   }//end Histogram
+
+   /* ---------------------------- connected components ----------------------- */
+
+   /**
+    * Labels every node with the smallest node of its component using a
+    * lock-free union-find: edges are unioned concurrently with CAS on the
+    * parent array, always linking the larger root under the smaller one.
+    *
+    * @return the component label of each node
+    */
+   public int[] components () {
+      int n = this._nodes;
+      AtomicIntegerArray parent = new AtomicIntegerArray(n);
+      for (int u = 0; u < n; ++u)
+         parent.set(u, u);
+      this._pool.invoke(new Union(parent, 0, n));
+      int[] label = new int[n];
+      for (int u = 0; u < n; ++u)
+         label[u] = find(parent, u);
+      return label;
+   }//end components
+
+   static int find (AtomicIntegerArray parent, int u) {
+      int p;
+      while ((p = parent.get(u)) != u) {
+         int gp = parent.get(p);
+         // path halving, losing the race only leaves the path longer
+         if (gp != p)
+            parent.compareAndSet(u, p, gp);
+         u = gp;
+      }
+      return u;
+   }
+
+   final class Union extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      final AtomicIntegerArray parent;
+      final int lo, hi;
+      Union (AtomicIntegerArray parent, int lo, int hi) { this.parent = parent; this.lo = lo; this.hi = hi; }
+      protected void compute () {
+         if (this.hi - this.lo > GRAIN) {
+            int mid = (this.lo + this.hi) >>> 1;
+            invokeAll(new Union(this.parent, this.lo, mid), new Union(this.parent, mid, this.hi));
+            return;
+         }
+         for (int u = this.lo; u < this.hi; ++u)
+            for (int e = _offsets[u], end = _offsets[u + 1]; e < end; ++e) {
+               int v = _adj[e];
+               if (v < u)
+                  continue;   // each undirected edge once
+               while (true) {
+                  int ru = find(this.parent, u), rv = find(this.parent, v);
+                  if (ru == rv)
+                     break;
+                  int big = Math.max(ru, rv), small = Math.min(ru, rv);
+                  if (this.parent.compareAndSet(big, big, small))
+                     break;
+               }
+            }
+      }
+   }//end Union
+
+   /* ---------------------------------- triangles ---------------------------- */
+
+   /**
+    * Counts the triangles each node takes part in. Every triangle u < v < w
+    * is found once, from u, by merging the sorted tails of adj(u) and adj(v)
+    * above v.
+    *
+    * @return triangles per node; the total is the sum divided by three
+    */
+   public int[] triangles () {
+      AtomicIntegerArray perNode = new AtomicIntegerArray(this._nodes);
+      this._pool.invoke(new Triangles(perNode, 0, this._nodes));
+      int[] result = new int[this._nodes];
+      for (int u = 0; u < this._nodes; ++u)
+         result[u] = perNode.get(u);
+      return result;
+   }
+
+   final class Triangles extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      final AtomicIntegerArray perNode;
+      final int lo, hi;
+      Triangles (AtomicIntegerArray perNode, int lo, int hi) { this.perNode = perNode; this.lo = lo; this.hi = hi; }
+      protected void compute () {
+         if (this.hi - this.lo > GRAIN) {
+            int mid = (this.lo + this.hi) >>> 1;
+            invokeAll(new Triangles(this.perNode, this.lo, mid), new Triangles(this.perNode, mid, this.hi));
+            return;
+         }
+         int[] off = _offsets, adj = _adj;
+         for (int u = this.lo; u < this.hi; ++u) {
+            int uEnd = off[u + 1];
+            int uStart = upper(adj, off[u], uEnd, u);
+            int found = 0;
+            for (int e = uStart; e < uEnd; ++e) {
+               int v = adj[e];
+               // merge adj(u) above v with adj(v) above v
+               int i = e + 1, j = upper(adj, off[v], off[v + 1], v), jEnd = off[v + 1];
+               int both = 0;
+               while (i < uEnd && j < jEnd) {
+                  int a = adj[i], b = adj[j];
+                  if (a < b) ++i;
+                  else if (a > b) ++j;
+                  else {
+                     this.perNode.incrementAndGet(a);
+                     ++both; ++i; ++j;
+                  }
+               }
+               if (both > 0)
+                  this.perNode.addAndGet(v, both);
+               found += both;
+            }
+            if (found > 0)
+               this.perNode.addAndGet(u, found);
+         }
+      }
+   }//end Triangles
+
+   // first index in adj[from, to) holding a value greater than key
+   static int upper (int[] adj, int from, int to, int key) {
+      while (from < to) {
+         int mid = (from + to) >>> 1;
+         if (adj[mid] <= key) from = mid + 1;
+         else to = mid;
+      }
+      return from;
+   }
+
+   /* ------------------------------- request shares -------------------------- */
+
+   public int sent (int u) { return this._sent[u]; }
+   public int pending (int u) { return this._pending[u]; }
+   public int rejected (int u) { return this._rejected[u]; }
+
+   /**
+    * The main execution method
+    *
+    * @param args <connection.csv | snapshot dir> [threads]
+    */
+   public static void main (String[] args) {
+      if (args.length < 1 || args.length > 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            GraphAnalytics.class.getName () +
+            " <connection.csv | snapshot dir> [threads]");
+         return;
+      }//end if
+
+      int threads = args.length > 1 ? Integer.parseInt(args[1])
+                                    : Runtime.getRuntime().availableProcessors();
+      GraphAnalytics g = new GraphAnalytics(threads);
+      try {
+         long t0 = System.nanoTime();
+         File input = new File(args[0]);
+         if (input.isDirectory())
+            g.loadSnapshot(new NetworkSnapshot(input));
+         else
+            g.loadCsv(input);
+         long t1 = System.nanoTime();
+         System.out.printf("Loaded %d users, %d friendships using %d threads in %.1f ms%n",
+                           g.nodeCount(), g.edgeCount(), threads, (t1 - t0) / 1e6);
+
+         long[] histogram = g.degreeHistogram();
+         long t2 = System.nanoTime();
+         System.out.printf("%nFriend-count histogram (%.1f ms)%n", (t2 - t1) / 1e6);
+         System.out.println("Friends\tUsers");
+         System.out.println("0\t" + histogram[0]);
+         for (int b = 1; b < histogram.length; ++b)
+            if (histogram[b] > 0)
+               System.out.println((1L << (b - 1)) + "-" + ((1L << b) - 1) + "\t" + histogram[b]);
+
+         int[] label = g.components();
+         long t3 = System.nanoTime();
+         int[] size = new int[g.nodeCount()];
+         int count = 0, isolated = 0, largest = 0;
+         for (int u = 0; u < g.nodeCount(); ++u) {
+            if (size[label[u]]++ == 0) ++count;
+            if (g.degree(u) == 0) ++isolated;
+         }
+         for (int s : size)
+            largest = Math.max(largest, s);
+         System.out.printf("%nConnected components (%.1f ms)%n", (t3 - t2) / 1e6);
+         System.out.printf("%d components, %d isolated users, largest has %d users%n",
+                           count, isolated, largest);
+
+         int[] tri = g.triangles();
+         long t4 = System.nanoTime();
+         long triangles = 0, wedges = 0;
+         double localSum = 0;
+         int localCount = 0;
+         for (int u = 0; u < g.nodeCount(); ++u) {
+            long d = g.degree(u);
+            triangles += tri[u];
+            wedges += d * (d - 1) / 2;
+            if (d >= 2) {
+               localSum += tri[u] / (d * (d - 1) / 2.0);
+               ++localCount;
+            }
+         }
+         triangles /= 3;
+         System.out.printf("%nTriangles (%.1f ms)%n", (t4 - t3) / 1e6);
+         System.out.printf("%d triangles, global clustering %.6f, average local clustering %.6f%n",
+                           triangles, wedges == 0 ? 0.0 : 3.0 * triangles / wedges,
+                           localCount == 0 ? 0.0 : localSum / localCount);
+
+         // share of each sender's requests still pending or rejected, in deciles
+         long sent = 0, pending = 0, rejected = 0;
+         int[] pendingDeciles = new int[11], rejectedDeciles = new int[11];
+         for (int u = 0; u < g.nodeCount(); ++u) {
+            if (g.sent(u) == 0)
+               continue;
+            sent += g.sent(u);
+            pending += g.pending(u);
+            rejected += g.rejected(u);
+            pendingDeciles[10 * g.pending(u) / g.sent(u)]++;
+            rejectedDeciles[10 * g.rejected(u) / g.sent(u)]++;
+         }
+         long t5 = System.nanoTime();
+         System.out.printf("%nRequest outcomes (%.1f ms)%n", (t5 - t4) / 1e6);
+         System.out.printf("%d requests sent: %.1f%% pending, %.1f%% rejected%n", sent,
+                           sent == 0 ? 0.0 : 100.0 * pending / sent,
+                           sent == 0 ? 0.0 : 100.0 * rejected / sent);
+         System.out.println("Share\tUsers pending\tUsers rejected");
+         for (int d = 0; d <= 10; ++d)
+            System.out.println((d == 10 ? "100%" : (d * 10) + "-" + (d * 10 + 9) + "%")
+                               + "\t" + pendingDeciles[d] + "\t" + rejectedDeciles[d]);
+
+         System.out.printf("%nTotal %.1f ms%n", (t5 - t0) / 1e6);
+      } catch (IOException e) {
+         System.err.println(e.getMessage());
+      } finally {
+         g._pool.shutdown();
+      }
+   }//end main
+
+   // growable int array, avoids boxing while loading
+   static final class IntList {
+      int[] data = new int[1024];
+      int size;
+      void add (int v) {
+         if (this.size == this.data.length)
+            this.data = Arrays.copyOf(this.data, this.size * 2);
+         this.data[this.size++] = v;
+      }
+      int[] toArray () { return Arrays.copyOf(this.data, this.size); }
+   }//end IntList
+
+}//end GraphAnalytics
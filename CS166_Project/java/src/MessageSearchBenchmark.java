@@ -0,0 +1,280 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the old MESSAGE indexing (a B-tree on contents) with the GIN
+ * full-text indexes SearchMessages uses, on a synthetic table.
+ *
+ * For each setup the benchmark creates MSG_BENCH with MESSAGE's columns and
+ * that setup's indexes, inserts the same seeded rows in batches and reports
+ * rows per second and the index size. It then times the same keyword
+ * searches scoped to one user: a LIKE over contents for the B-tree setup,
+ * which is all it can offer, and the ranked tsquery for the GIN setup.
+ * The table is dropped afterwards.
+ */
+public class MessageSearchBenchmark {
+
+   static final int USERS = 5000;
+   static final int VOCABULARY = 20000;
+   static final int BATCH = 1000;
+   static final int PAGE = 10;
+
+   // MESSAGE's indexes from create_index.sql other than the contents ones
+   static final String[] COMMON = {
+      "CREATE UNIQUE INDEX MsgBench_msgId ON MSG_BENCH USING BTREE (msgId)",
+      "CREATE INDEX MsgBench_senderId ON MSG_BENCH USING BTREE (senderId)",
+      "CREATE INDEX MsgBench_receiverId ON MSG_BENCH USING BTREE (receiverId)",
+      "CREATE INDEX MsgBench_sendTime ON MSG_BENCH USING BTREE (sendTime)",
+      "CREATE INDEX MsgBench_delete ON MSG_BENCH USING BTREE (deleteStatus)",
+      "CREATE INDEX MsgBench_status ON MSG_BENCH USING BTREE (status)",
+   };
+   static final String[] BTREE = {
+      "CREATE INDEX MsgBench_contents ON MSG_BENCH USING BTREE (contents)",
+   };
+   static final String[] GIN = {
+      "CREATE EXTENSION IF NOT EXISTS btree_gin",
+      "CREATE INDEX MsgBench_receiver_search ON MSG_BENCH USING GIN (receiverId, to_tsvector('english', contents))",
+      "CREATE INDEX MsgBench_sender_search ON MSG_BENCH USING GIN (senderId, to_tsvector('english', contents))",
+   };
+
+   static final String SCOPE =
+      "((M.receiverId = ? AND M.deleteStatus IN (0, 1)) OR (M.senderId = ? AND M.deleteStatus IN (0, 2)))";
+   static final String LIKE_SEARCH =
+      "SELECT M.msgId, M.contents FROM MSG_BENCH M WHERE " + SCOPE +
+      " AND M.contents LIKE ? ORDER BY M.msgId DESC LIMIT " + PAGE;
+   // the same shape as ProfNetwork.SearchMessages
+   static final String TEXT_SEARCH =
+      "SELECT R.msgId, ts_headline('english', rtrim(R.contents), plainto_tsquery('english', ?)) AS snippet " +
+      "FROM (SELECT M.msgId, M.contents, ts_rank(to_tsvector('english', M.contents), plainto_tsquery('english', ?)) AS rank " +
+      "FROM MSG_BENCH M WHERE " + SCOPE + " AND to_tsvector('english', M.contents) @@ plainto_tsquery('english', ?) " +
+      "ORDER BY rank DESC, M.msgId DESC LIMIT " + PAGE + ") R ORDER BY R.rank DESC, R.msgId DESC";
+
+   private final Connection _connection;
+   private final String[] _words;
+   private final double[] _cumulative;   // Zipf weights of _words
+
+   public MessageSearchBenchmark (Connection connection) {
+      this._connection = connection;
+      this._words = new String[VOCABULARY];
+      this._cumulative = new double[VOCABULARY];
+      String[] syllables = { "ka", "lo", "mi", "ne", "ru", "sa", "ti", "vo", "pe", "da",
+                             "gor", "lin", "ter", "bas", "quen", "mar", "sol", "vik", "tra", "zel" };
+      Random r = new Random(7);
+      double sum = 0;
+      for (int i = 0; i < VOCABULARY; ++i) {
+         StringBuilder w = new StringBuilder();
+         int n = 2 + r.nextInt(3);
+         for (int j = 0; j < n; ++j)
+            w.append(syllables[r.nextInt(syllables.length)]);
+         this._words[i] = w.toString();
+         sum += 1.0 / (i + 1);
+         this._cumulative[i] = sum;
+      }
+   }
+
+   private String word (Random r) {
+      double x = r.nextDouble() * this._cumulative[VOCABULARY - 1];
+      int i = Arrays.binarySearch(this._cumulative, x);
+      return this._words[i < 0 ? -i - 1 : i];
+   }
+
+   private String contents (Random r) {
+      StringBuilder sb = new StringBuilder();
+      int n = 8 + r.nextInt(50);
+      for (int i = 0; i < n; ++i) {
+         String w = word(r);
+         if (sb.length() + w.length() + 1 > 500) break;
+         if (i > 0) sb.append(' ');
+         sb.append(w);
+      }
+      return sb.toString();
+   }
+
+   private static String user (int i) { return "bench" + i; }
+
+   private void execute (String sql) throws SQLException {
+      Statement stmt = this._connection.createStatement();
+      try {
+         stmt.execute(sql);
+      } finally {
+         stmt.close();
+      }
+   }
+
+   private long scalar (String sql) throws SQLException {
+      Statement stmt = this._connection.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(sql);
+         rs.next();
+         return rs.getLong(1);
+      } finally {
+         stmt.close();
+      }
+   }
+
+   private void createTable (String[] indexes) throws SQLException {
+      execute("DROP TABLE IF EXISTS MSG_BENCH");
+      execute("CREATE TABLE MSG_BENCH (msgId integer NOT NULL, senderId varchar(30) NOT NULL, " +
+              "receiverId varchar(30) NOT NULL, contents char(500) NOT NULL, sendTime timestamp, " +
+              "deleteStatus integer, status char(30) NOT NULL, PRIMARY KEY(msgId))");
+      for (String sql : COMMON) execute(sql);
+      for (String sql : indexes) execute(sql);
+   }
+
+   /**
+    * Inserts the seeded rows and returns the elapsed nanoseconds.
+    */
+   private long insert (int rows) throws SQLException {
+      Random r = new Random(42);
+      PreparedStatement stmt = this._connection.prepareStatement(
+         "INSERT INTO MSG_BENCH (msgId, senderId, receiverId, contents, sendTime, deleteStatus, status) " +
+         "VALUES (?, ?, ?, ?, ?, ?, ?)");
+      this._connection.setAutoCommit(false);
+      long start = System.nanoTime();
+      try {
+         long time = Timestamp.valueOf("2022-01-01 00:00:00").getTime();
+         for (int i = 0; i < rows; ++i) {
+            stmt.setInt(1, i);
+            stmt.setString(2, user(r.nextInt(USERS)));
+            stmt.setString(3, user(r.nextInt(USERS)));
+            stmt.setString(4, contents(r));
+            stmt.setTimestamp(5, new Timestamp(time + i * 60000L));
+            stmt.setInt(6, r.nextInt(10) < 7 ? 0 : r.nextInt(4));
+            stmt.setString(7, "Sent");
+            stmt.addBatch();
+            if ((i + 1) % BATCH == 0 || i == rows - 1) {
+               stmt.executeBatch();
+               this._connection.commit();
+            }
+         }
+         return System.nanoTime() - start;
+      } finally {
+         this._connection.setAutoCommit(true);
+         stmt.close();
+      }
+   }
+
+   /**
+    * Runs the seeded searches and returns the sorted latencies in ms.
+    * hits[0] receives the total number of rows returned.
+    */
+   private double[] search (boolean fullText, int searches, long[] hits) throws SQLException {
+      Random r = new Random(99);
+      PreparedStatement stmt = this._connection.prepareStatement(fullText ? TEXT_SEARCH : LIKE_SEARCH);
+      double[] millis = new double[searches];
+      try {
+         for (int i = -searches / 10; i < searches; ++i) {  // first tenth is warmup
+            String me = user(r.nextInt(USERS));
+            String w = word(r);
+            if (fullText) {
+               stmt.setString(1, w);
+               stmt.setString(2, w);
+               stmt.setString(3, me);
+               stmt.setString(4, me);
+               stmt.setString(5, w);
+            } else {
+               stmt.setString(1, me);
+               stmt.setString(2, me);
+               stmt.setString(3, "%" + w + "%");
+            }
+            long t0 = System.nanoTime();
+            ResultSet rs = stmt.executeQuery();
+            int n = 0;
+            while (rs.next()) ++n;
+            rs.close();
+            if (i >= 0) {
+               millis[i] = (System.nanoTime() - t0) / 1e6;
+               hits[0] += n;
+            }
+         }
+      } finally {
+         stmt.close();
+      }
+      Arrays.sort(millis);
+      return millis;
+   }
+
+   private static double percentile (double[] sorted, double p) {
+      int i = (int) Math.ceil(p * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+   }
+
+   private void run (String name, String[] indexes, boolean fullText, int rows, int searches) throws SQLException {
+      createTable(indexes);
+      long nanos = insert(rows);
+      execute("ANALYZE MSG_BENCH");
+      long indexBytes = scalar("SELECT COALESCE(SUM(pg_relation_size(I.indexrelid)), 0) FROM pg_index I " +
+                               "WHERE I.indrelid = 'msg_bench'::regclass");
+      long[] hits = new long[1];
+      double[] ms = search(fullText, searches, hits);
+      double mean = 0;
+      for (double m : ms) mean += m;
+      mean /= ms.length;
+      System.out.printf("%s\t%.0f\t\t%d\t\t%.2f\t%.2f\t%.2f\t%.2f\t%.1f%n", name, rows / (nanos / 1e9),
+                        indexBytes / (1024 * 1024), mean, percentile(ms, 0.5), percentile(ms, 0.95),
+                        percentile(ms, 0.99), (double) hits[0] / searches);
+   }
+
+   /**
+    * @param args <dbname> <port> <user> [rows] [searches]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            MessageSearchBenchmark.class.getName () +
+            " <dbname> <port> <user> [rows] [searches]");
+         return;
+      }//end if
+
+      int rows = args.length > 3 ? Integer.parseInt(args[3]) : 500000;
+      int searches = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+      Connection connection = null;
+      MessageSearchBenchmark bench = null;
+      try {
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         connection = DriverManager.getConnection(url, args[2], "");
+         bench = new MessageSearchBenchmark(connection);
+
+         System.out.printf("%d rows, %d users, %d searches%n", rows, USERS, searches);
+         System.out.println("Setup\tInserts/s\tIndexes MB\tmean ms\tp50\tp95\tp99\thits/search");
+         bench.run("btree", BTREE, false, rows, searches);
+         bench.run("gin", GIN, true, rows, searches);
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         try {
+            if (bench != null)
+               bench.execute("DROP TABLE IF EXISTS MSG_BENCH");
+            if (connection != null)
+               connection.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end main
+
+}//end MessageSearchBenchmark
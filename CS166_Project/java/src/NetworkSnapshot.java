@@ -0,0 +1,422 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Read-only view over a binary snapshot of the social network written by
+ * SnapshotExporter. Every file of the snapshot is mapped with FileChannel.map
+ * so opening it costs a few system calls and all columns stay off-heap.
+ *
+ * A snapshot directory holds:
+ *    strings.bin  dictionary of every distinct string (ids, emails, companies...)
+ *    usr.col      one row per node, sorted by userId
+ *    work.col     WORK_EXPR rows, sorted by user node
+ *    edu.col      EDUCATIONAL_DETAILS rows, sorted by user node
+ *    edges.csr    CONNECTION_USR in compressed sparse row form, both directions
+ *
+ * Nodes are every userId in USR plus any connectionId that only shows up in
+ * CONNECTION_USR (that column has no foreign key). Those extra nodes have no
+ * email, name or date of birth.
+ */
+public class NetworkSnapshot {
+
+   // file header magics, also used by SnapshotExporter
+   static final int STRINGS_MAGIC = 0x504E5354;   // "PNST"
+   static final int TABLE_MAGIC   = 0x504E5442;   // "PNTB"
+   static final int EDGES_MAGIC   = 0x504E4547;   // "PNEG"
+   static final int VERSION = 1;
+
+   // value stored for a missing string or date
+   public static final int NO_STRING = -1;
+   public static final int NO_DATE = Integer.MIN_VALUE;
+
+   // connection status codes, the high bit marks an incoming edge
+   public static final int STATUS_ACCEPT  = 0;
+   public static final int STATUS_REQUEST = 1;
+   public static final int STATUS_REJECT  = 2;
+   public static final int STATUS_OTHER   = 3;
+   static final int INCOMING = 0x80;
+
+   // column positions inside each table file
+   public static final int USR_ID = 0, USR_EMAIL = 1, USR_NAME = 2, USR_DOB = 3;
+   public static final int USR_COLUMNS = 4;
+   public static final int WORK_USER = 0, WORK_COMPANY = 1, WORK_ROLE = 2,
+                           WORK_LOCATION = 3, WORK_START = 4, WORK_END = 5;
+   public static final int WORK_COLUMNS = 6;
+   public static final int EDU_USER = 0, EDU_INSTITUTION = 1, EDU_MAJOR = 2,
+                           EDU_DEGREE = 3, EDU_START = 4, EDU_END = 5;
+   public static final int EDU_COLUMNS = 6;
+
+   static final Charset UTF8 = Charset.forName("UTF-8");
+
+   // string pool
+   private final int _stringCount;
+   private final IntBuffer _stringOffsets;
+   private final ByteBuffer _stringBytes;
+
+   // tables, one IntBuffer per column
+   private final int _userCount;
+   private final IntBuffer[] _usr;
+   private final int _workCount;
+   private final IntBuffer[] _work;
+   private final int _eduCount;
+   private final IntBuffer[] _edu;
+
+   // connection graph
+   private final int _edgeCount;
+   private final IntBuffer _edgeOffsets;
+   private final IntBuffer _edgeTargets;
+   private final ByteBuffer _edgeStatus;
+
+   /**
+    * Maps an existing snapshot directory.
+    *
+    * @param dir the directory SnapshotExporter wrote to
+    * @throws java.io.IOException when a file is missing or malformed
+    */
+   public NetworkSnapshot (File dir) throws IOException {
+      ByteBuffer strings = map(new File(dir, "strings.bin"));
+      checkHeader(strings, STRINGS_MAGIC, "strings.bin");
+      this._stringCount = strings.getInt(8);
+      this._stringOffsets = slice(strings, 12, (this._stringCount + 1) * 4).asIntBuffer();
+      int dataStart = 12 + (this._stringCount + 1) * 4;
+      this._stringBytes = slice(strings, dataStart, strings.capacity() - dataStart);
+
+      ByteBuffer usr = map(new File(dir, "usr.col"));
+      this._usr = columns(usr, USR_COLUMNS, "usr.col");
+      this._userCount = usr.getInt(8);
+
+      ByteBuffer work = map(new File(dir, "work.col"));
+      this._work = columns(work, WORK_COLUMNS, "work.col");
+      this._workCount = work.getInt(8);
+
+      ByteBuffer edu = map(new File(dir, "edu.col"));
+      this._edu = columns(edu, EDU_COLUMNS, "edu.col");
+      this._eduCount = edu.getInt(8);
+
+      ByteBuffer edges = map(new File(dir, "edges.csr"));
+      checkHeader(edges, EDGES_MAGIC, "edges.csr");
+      if (edges.getInt(8) != this._userCount)
+         throw new IOException("edges.csr does not match usr.col");
+      this._edgeCount = edges.getInt(12);
+      int pos = 16;
+      this._edgeOffsets = slice(edges, pos, (this._userCount + 1) * 4).asIntBuffer();
+      pos += (this._userCount + 1) * 4;
+      this._edgeTargets = slice(edges, pos, this._edgeCount * 4).asIntBuffer();
+      pos += this._edgeCount * 4;
+      this._edgeStatus = slice(edges, pos, this._edgeCount);
+   }//end NetworkSnapshot
+
+   private static MappedByteBuffer map (File f) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(f, "r");
+      try {
+         // the mapping stays valid after the channel is closed
+         return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      } finally {
+         raf.close();
+      }
+   }
+
+   private static void checkHeader (ByteBuffer buf, int magic, String name) throws IOException {
+      if (buf.capacity() < 16 || buf.getInt(0) != magic)
+         throw new IOException(name + " is not a snapshot file");
+      if (buf.getInt(4) != VERSION)
+         throw new IOException(name + " has unsupported version " + buf.getInt(4));
+   }
+
+   private static ByteBuffer slice (ByteBuffer buf, int pos, int len) {
+      ByteBuffer dup = buf.duplicate();
+      dup.position(pos);
+      dup.limit(pos + len);
+      return dup.slice();
+   }
+
+   private static IntBuffer[] columns (ByteBuffer buf, int expected, String name) throws IOException {
+      checkHeader(buf, TABLE_MAGIC, name);
+      int rows = buf.getInt(8);
+      int cols = buf.getInt(12);
+      if (cols != expected)
+         throw new IOException(name + " has " + cols + " columns, expected " + expected);
+      IntBuffer[] result = new IntBuffer[cols];
+      for (int c = 0; c < cols; ++c)
+         result[c] = slice(buf, 16 + c * rows * 4, rows * 4).asIntBuffer();
+      return result;
+   }
+
+   /* -------------------------------- strings -------------------------------- */
+
+   public int stringCount () { return this._stringCount; }
+
+   /**
+    * Decodes one dictionary entry.
+    *
+    * @param id the string id, NO_STRING gives null
+    * @return the string
+    */
+   public String string (int id) {
+      if (id == NO_STRING)
+         return null;
+      int start = this._stringOffsets.get(id);
+      int len = this._stringOffsets.get(id + 1) - start;
+      byte[] bytes = new byte[len];
+      ByteBuffer dup = this._stringBytes.duplicate();
+      dup.position(start);
+      dup.get(bytes);
+      return new String(bytes, UTF8);
+   }
+
+   /* --------------------------------- users --------------------------------- */
+
+   public int userCount () { return this._userCount; }
+
+   public String userId (int node) { return string(this._usr[USR_ID].get(node)); }
+   public String email (int node) { return string(this._usr[USR_EMAIL].get(node)); }
+   public String name (int node) { return string(this._usr[USR_NAME].get(node)); }
+   public int dateOfBirth (int node) { return this._usr[USR_DOB].get(node); }
+
+   /**
+    * Returns true when the node is a row of USR rather than a dangling
+    * connectionId.
+    */
+   public boolean isRegistered (int node) {
+      return this._usr[USR_EMAIL].get(node) != NO_STRING;
+   }
+
+   /**
+    * Binary searches the node of a userId. Nodes are sorted by userId.
+    *
+    * @param userId the user to look up
+    * @return the node, or -1 if the user is not in the snapshot
+    */
+   public int findUser (String userId) {
+      int lo = 0, hi = this._userCount - 1;
+      while (lo <= hi) {
+         int mid = (lo + hi) >>> 1;
+         int cmp = userId(mid).compareTo(userId);
+         if (cmp < 0) lo = mid + 1;
+         else if (cmp > 0) hi = mid - 1;
+         else return mid;
+      }
+      return -1;
+   }
+
+   /* --------------------------------- edges --------------------------------- */
+
+   public int edgeCount () { return this._edgeCount; }
+   public int edgeStart (int node) { return this._edgeOffsets.get(node); }
+   public int edgeEnd (int node) { return this._edgeOffsets.get(node + 1); }
+   public int edgeTarget (int edge) { return this._edgeTargets.get(edge); }
+   public int edgeStatus (int edge) { return this._edgeStatus.get(edge) & ~INCOMING; }
+   public boolean edgeIncoming (int edge) { return (this._edgeStatus.get(edge) & INCOMING) != 0; }
+
+   /**
+    * Counts accepted connections in either direction, i.e. the friend list.
+    */
+   public int friendCount (int node) {
+      int count = 0;
+      for (int e = edgeStart(node), end = edgeEnd(node); e < end; ++e)
+         if (edgeStatus(e) == STATUS_ACCEPT)
+            ++count;
+      return count;
+   }
+
+   /* ------------------------- work and education rows ----------------------- */
+
+   public int workCount () { return this._workCount; }
+   public int work (int row, int column) { return this._work[column].get(row); }
+
+   public int educationCount () { return this._eduCount; }
+   public int education (int row, int column) { return this._edu[column].get(row); }
+
+   /**
+    * Returns the first WORK_EXPR row of a node; rows of one node are adjacent.
+    */
+   public int firstWork (int node) { return lowerBound(this._work[WORK_USER], this._workCount, node); }
+
+   /**
+    * Returns the first EDUCATIONAL_DETAILS row of a node; rows of one node are adjacent.
+    */
+   public int firstEducation (int node) { return lowerBound(this._edu[EDU_USER], this._eduCount, node); }
+
+   private static int lowerBound (IntBuffer col, int rows, int key) {
+      int lo = 0, hi = rows;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (col.get(mid) < key) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+
+   /* --------------------------------- dates --------------------------------- */
+
+   /**
+    * Converts a date to days since 1970-01-01. Accepts the ISO form Postgres
+    * returns (yyyy-mm-dd) and the m/d/yyyy form of the CSV files.
+    *
+    * @param date the date text, may be null or empty
+    * @return the day number, or NO_DATE
+    */
+   public static int toEpochDay (String date) {
+      if (date == null)
+         return NO_DATE;
+      date = date.trim();
+      if (date.length() == 0)
+         return NO_DATE;
+      String[] parts;
+      int y, m, d;
+      try {
+         if (date.indexOf('/') >= 0) {
+            parts = date.split("/");
+            m = Integer.parseInt(parts[0]);
+            d = Integer.parseInt(parts[1]);
+            y = Integer.parseInt(parts[2].trim());
+         } else {
+            // drop any time part of a timestamp
+            parts = date.split("[- ]");
+            y = Integer.parseInt(parts[0]);
+            m = Integer.parseInt(parts[1]);
+            d = Integer.parseInt(parts[2]);
+         }
+      } catch (RuntimeException e) {
+         return NO_DATE;
+      }
+      // days from civil, proleptic Gregorian calendar
+      y -= m <= 2 ? 1 : 0;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yoe = y - era * 400;
+      int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+      int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+      return era * 146097 + doe - 719468;
+   }//end toEpochDay
+
+   /**
+    * Formats a day number as yyyy-mm-dd.
+    *
+    * @param day days since 1970-01-01
+    * @return the date text, or null for NO_DATE
+    */
+   public static String fromEpochDay (int day) {
+      if (day == NO_DATE)
+         return null;
+      int z = day + 719468;
+      int era = (z >= 0 ? z : z - 146096) / 146097;
+      int doe = z - era * 146097;
+      int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+      int y = yoe + era * 400;
+      int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+      int mp = (5 * doy + 2) / 153;
+      int d = doy - (153 * mp + 2) / 5 + 1;
+      int m = mp + (mp < 10 ? 3 : -9);
+      if (m <= 2) ++y;
+      return String.format("%04d-%02d-%02d", y, m, d);
+   }//end fromEpochDay
+
+   /**
+    * Maps a CONNECTION_USR status to its code.
+    */
+   public static int statusCode (String status) {
+      if (status == null) return STATUS_OTHER;
+      status = status.trim();
+      if (status.equals("Accept")) return STATUS_ACCEPT;
+      if (status.equals("Request")) return STATUS_REQUEST;
+      if (status.equals("Reject")) return STATUS_REJECT;
+      return STATUS_OTHER;
+   }
+
+   /**
+    * Opens a snapshot and prints a few network-wide figures: sizes, the
+    * friend-count distribution, the most connected users and the companies
+    * with the most employees.
+    *
+    * @param args the snapshot directory
+    */
+   public static void main (String[] args) {
+      if (args.length != 1) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            NetworkSnapshot.class.getName () +
+            " <snapshot dir>");
+         return;
+      }//end if
+
+      try {
+         long start = System.nanoTime();
+         NetworkSnapshot snap = new NetworkSnapshot(new File(args[0]));
+         long opened = System.nanoTime();
+         System.out.printf("Opened snapshot in %.2f ms%n", (opened - start) / 1e6);
+         System.out.printf("%d users, %d connection entries, %d work rows, %d education rows, %d strings%n",
+                           snap.userCount(), snap.edgeCount() / 2, snap.workCount(),
+                           snap.educationCount(), snap.stringCount());
+
+         // friend-count histogram in power-of-two buckets
+         int n = snap.userCount();
+         int[] friends = new int[n];
+         int[] buckets = new int[33];
+         for (int u = 0; u < n; ++u) {
+            friends[u] = snap.friendCount(u);
+            buckets[friends[u] == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(friends[u])]++;
+         }
+         System.out.println("\nFriends\tUsers");
+         System.out.println("0\t" + buckets[0]);
+         for (int b = 1; b < buckets.length; ++b)
+            if (buckets[b] > 0)
+               System.out.println((1 << (b - 1)) + "-" + ((1 << b) - 1) + "\t" + buckets[b]);
+
+         System.out.println("\nMost connected users");
+         for (int u : topK(friends, 10))
+            System.out.println(snap.userId(u) + "\t" + friends[u]);
+
+         // employees per company, one count per work row
+         int[] perCompany = new int[snap.stringCount()];
+         for (int r = 0; r < snap.workCount(); ++r)
+            perCompany[snap.work(r, WORK_COMPANY)]++;
+         System.out.println("\nTop companies");
+         for (int s : topK(perCompany, 10))
+            if (perCompany[s] > 0)
+               System.out.println(snap.string(s) + "\t" + perCompany[s]);
+
+         System.out.printf("%nAnalytics ran in %.2f ms%n", (System.nanoTime() - opened) / 1e6);
+      } catch (IOException e) {
+         System.err.println(e.getMessage());
+      }
+   }//end main
+
+   // indexes of the k largest values, largest first
+   static int[] topK (int[] values, int k) {
+      k = Math.min(k, values.length);
+      int[] best = new int[k];
+      int size = 0;
+      for (int i = 0; i < values.length; ++i) {
+         if (size == k && values[i] <= values[best[k - 1]])
+            continue;
+         int j = size < k ? size++ : k - 1;
+         while (j > 0 && values[best[j - 1]] < values[i]) {
+            best[j] = best[j - 1];
+            --j;
+         }
+         best[j] = i;
+      }
+      return best;
+   }//end topK
+
+}//end NetworkSnapshot
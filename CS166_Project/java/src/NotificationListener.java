@@ -0,0 +1,147 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Tells a logged in user about new messages and connection requests as they
+ * happen, using the LISTEN channels create_notify.sql notifies on, and keeps
+ * the user's SessionSnapshot and the ProfNetwork's EdgeFilter current.
+ *
+ * The thread owns its own connection. This driver only reads notifications
+ * that arrive with a query result and cannot hand out payloads, so the
+ * triggers use one channel per user and kind, and the thread sends a
+ * SELECT 1 every POLL_MILLIS to collect what arrived. That round trip
+ * touches no table; nothing is requeried unless a notification says so.
+ */
+public class NotificationListener extends Thread {
+
+   // how often the connection is checked for notifications
+   static final long POLL_MILLIS = 1000;
+
+   private final ProfNetwork _esql;
+   private final String _userId;
+   private final SessionSnapshot _session;
+   private final String _messages, _requests, _answers;
+   private volatile boolean _running = true;
+   private Connection _connection;
+
+   /**
+    * Creates the listener; call start() to begin listening.
+    *
+    * @param esql the menu's ProfNetwork, used to open a second connection
+    * @param userId the authorised user
+    * @param session the snapshot to keep current, or null
+    */
+   public NotificationListener (ProfNetwork esql, String userId, SessionSnapshot session) {
+      super("notification-listener");
+      setDaemon(true);
+      this._esql = esql;
+      this._userId = userId;
+      this._session = session;
+      this._messages = channel("msg", userId);
+      this._requests = channel("req", userId);
+      this._answers = channel("con", userId);
+   }//end NotificationListener
+
+   /**
+    * The channel name notify_channel(kind, userId) gives in SQL.
+    */
+   static String channel (String kind, String userId) {
+      try {
+         // rtrim, as connectionId is char(30)
+         String id = userId.replaceAll("\\s+$", "");
+         byte[] digest = MessageDigest.getInstance("MD5").digest(id.getBytes("UTF-8"));
+         StringBuilder sb = new StringBuilder(kind).append('_');
+         for (byte b : digest)
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+         return sb.toString();
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      } catch (java.io.UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   public void run () {
+      try {
+         this._connection = this._esql.openConnection();
+         Statement stmt = this._connection.createStatement();
+         try {
+            stmt.execute("LISTEN \"" + this._messages + "\"");
+            stmt.execute("LISTEN \"" + this._requests + "\"");
+            stmt.execute("LISTEN \"" + this._answers + "\"");
+            while (this._running) {
+               // any query brings in whatever was notified meanwhile
+               stmt.executeQuery("SELECT 1").close();
+               PGNotification[] events = ((PGConnection) this._connection).getNotifications();
+               if (events != null && events.length > 0)
+                  deliver(events);
+               Thread.sleep(POLL_MILLIS);
+            }
+         } finally {
+            stmt.close();
+         }
+      } catch (InterruptedException e) {
+         // shutting down.
+      } catch (SQLException e) {
+         if (this._running)
+            System.err.println("Notifications stopped: " + e.getMessage());
+      } finally {
+         try {
+            if (this._connection != null)
+               this._connection.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end run
+
+   private void deliver (PGNotification[] events) {
+      int messages = 0, requests = 0, answers = 0;
+      for (PGNotification n : events) {
+         if (n.getName().equals(this._messages)) ++messages;
+         else if (n.getName().equals(this._requests)) ++requests;
+         else if (n.getName().equals(this._answers)) ++answers;
+      }
+      if (this._session != null) {
+         if (messages > 0) this._session.inboxChanged();
+         if (requests > 0) this._session.pendingChanged();
+         if (answers > 0) this._session.friendsChanged();
+      }
+      // a new or answered pair the loaded filter does not have
+      if (requests > 0 || answers > 0)
+         this._esql.connectionsChanged();
+      if (messages > 0)
+         System.out.printf("%n*** %s: you have %d new message%s ***%n", this._userId, messages, messages == 1 ? "" : "s");
+      if (requests > 0)
+         System.out.printf("%n*** %s: you have %d new connection request%s ***%n", this._userId, requests, requests == 1 ? "" : "s");
+      if (answers > 0)
+         System.out.printf("%n*** %s: %d of your connection requests %s answered ***%n", this._userId, answers, answers == 1 ? "was" : "were");
+   }
+
+   /**
+    * Stops listening and closes the connection.
+    */
+   public void shutdown () {
+      this._running = false;
+      interrupt();
+   }//end shutdown
+
+}//end NotificationListener
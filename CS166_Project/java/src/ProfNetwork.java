@@ -14,6 +14,7 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,6 +22,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -31,8 +33,32 @@ import java.util.ArrayList;
  */
 public class ProfNetwork {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // sends writes to the primary and reads to replicas, if any.
+   private ConnectionRouter _router = null;
+
+   // login details, kept to open more connections for background work
+   private String _url = null;
+   private String _user = null;
+   private String _passwd = null;
+
+   // data prefetched for the logged in user, null when nobody is logged in
+   private SessionSnapshot _session = null;
+
+   // pushes new messages and requests for the logged in user
+   private NotificationListener _listener = null;
+
+   // users and connection pairs, loaded on the first connection request and
+   // dropped by the notification listener when another user changes a pair
+   private volatile EdgeFilter _edges = null;
+
+   // work and education facets, loaded on the first directory search
+   private DirectoryIndex _directory = null;
+
+   // work and education tenures, loaded on the first colleague search
+   private TenureIndex _tenure = null;
+
+   // matches shown per page by SearchMessages
+   static final int SEARCH_PAGE = 10;
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -55,9 +81,15 @@ public class ProfNetwork {
          // constructs the connection URL
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
-
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         this._url = url;
+         this._user = user;
+         this._passwd = passwd;
+
+         // obtain a physical connection to the primary
+         int policy = "least-loaded".equals(System.getProperty("routing"))
+            ? ConnectionRouter.LEAST_LOADED : ConnectionRouter.ROUND_ROBIN;
+         this._router = new ConnectionRouter(url, user, passwd, policy);
+         this._router.primary();
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -73,9 +105,18 @@ public class ProfNetwork {
     * @param sql the input SQL string
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
+   public void executeUpdate (final String sql) throws SQLException {
+      this._router.write (new ConnectionRouter.Work<Void>() {
+         public Void run (Connection c) throws SQLException {
+            executeUpdate (c, sql);
+            return null;
+         }
+      });
+   }
+
+   private static void executeUpdate (Connection c, String sql) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = c.createStatement ();
 
       // issues the update instruction
       stmt.executeUpdate (sql);
@@ -93,9 +134,17 @@ public class ProfNetwork {
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
+   public int executeQueryAndPrintResult (final String query) throws SQLException {
+      return this._router.read (new ConnectionRouter.Work<Integer>() {
+         public Integer run (Connection c) throws SQLException {
+            return executeQueryAndPrintResult (c, query);
+         }
+      });
+   }
+
+   private static int executeQueryAndPrintResult (Connection c, String query) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = c.createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
@@ -136,9 +185,17 @@ public class ProfNetwork {
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
+   public List<List<String>> executeQueryAndReturnResult (final String query) throws SQLException {
+      return this._router.read (new ConnectionRouter.Work<List<List<String>>>() {
+         public List<List<String>> run (Connection c) throws SQLException {
+            return executeQueryAndReturnResult (c, query);
+         }
+      });
+   }
+
+   private static List<List<String>> executeQueryAndReturnResult (Connection c, String query) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = c.createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
@@ -164,6 +221,80 @@ public class ProfNetwork {
       return result;
    }//end executeQueryAndReturnResult
 
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the results as a
+    * column-oriented table with typed getters, which is much smaller than
+    * the list of records for large results.
+    *
+    * @param query the input query string
+    * @return the query result as a ResultTable
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultTable executeQueryAndReturnTable (final String query) throws SQLException {
+      return this._router.read (new ConnectionRouter.Work<ResultTable>() {
+         public ResultTable run (Connection c) throws SQLException {
+            return executeQueryAndReturnTable (c, query);
+         }
+      });
+   }
+
+   private static ResultTable executeQueryAndReturnTable (Connection c, String query) throws SQLException {
+      // creates a statement object
+      Statement stmt = c.createStatement ();
+
+      // issues the query instruction and drains it column by column
+      ResultSet rs = stmt.executeQuery (query);
+      ResultTable result = ResultTable.from (rs);
+      stmt.close ();
+      return result;
+   }//end executeQueryAndReturnTable
+
+   /**
+    * Method to execute a SELECT with ? placeholders, for values typed in by
+    * the user that must not be pasted into the SQL text.
+    *
+    * @param query the input query string with ? placeholders
+    * @param params one value per placeholder, in order
+    * @return the query result as a ResultTable
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultTable executeQueryAndReturnTable (final String query, final Object... params) throws SQLException {
+      return this._router.read (new ConnectionRouter.Work<ResultTable>() {
+         public ResultTable run (Connection c) throws SQLException {
+            return executeQueryAndReturnTable (c, query, params);
+         }
+      });
+   }
+
+   private static ResultTable executeQueryAndReturnTable (Connection c, String query, Object... params) throws SQLException {
+      PreparedStatement stmt = c.prepareStatement (query);
+      try{
+         for (int i = 0; i < params.length; ++i)
+            stmt.setObject (i + 1, params[i]);
+         ResultSet rs = stmt.executeQuery ();
+         return ResultTable.from (rs);
+      }finally{
+         stmt.close ();
+      }//end try
+   }//end executeQueryAndReturnTable
+
+   /**
+    * Method to execute a SELECT on the primary even when replicas are
+    * configured, for values the next write depends on such as MAX(msgId).
+    *
+    * @param query the input query string
+    * @return the query result as a ResultTable
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultTable executeQueryOnPrimary (final String query) throws SQLException {
+      return this._router.readPrimary (new ConnectionRouter.Work<ResultTable>() {
+         public ResultTable run (Connection c) throws SQLException {
+            return executeQueryAndReturnTable (c, query);
+         }
+      });
+   }//end executeQueryOnPrimary
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
@@ -172,9 +303,17 @@ public class ProfNetwork {
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
+   public int executeQuery (final String query) throws SQLException {
+      return this._router.read (new ConnectionRouter.Work<Integer>() {
+         public Integer run (Connection c) throws SQLException {
+            return executeQuery (c, query);
+         }
+      });
+   }
+
+   private static int executeQuery (Connection c, String query) throws SQLException {
        // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       Statement stmt = c.createStatement ();
 
        // issues the query instruction
        ResultSet rs = stmt.executeQuery (query);
@@ -199,7 +338,8 @@ public class ProfNetwork {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+	// currval belongs to the session that called nextval, i.e. the primary's
+	Statement stmt = this._router.primary().createStatement ();
 
 	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
 	if (rs.next())
@@ -207,17 +347,189 @@ public class ProfNetwork {
 	return -1;
    }
 
+   /**
+    * Adds a streaming replica that plain reads may be sent to.
+    *
+    * @param url the JDBC URL of the replica
+    */
+   public void addReplica(String url){
+      System.out.println ("Replica URL: " + url);
+      this._router.addReplica(url);
+   }//end addReplica
+
+   /**
+    * Describes each server and the reads it has served, for the report
+    * printed on exit when replicas are in use.
+    */
+   public String routingReport(){
+      return this._router.describe();
+   }//end routingReport
+
+   /**
+    * Method to open another physical connection to the same database, for
+    * work that runs beside the menu.
+    *
+    * @return a new connection the caller must close
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public Connection openConnection() throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }//end openConnection
+
+   /**
+    * Starts prefetching the session data of a user who just logged in.
+    */
+   public SessionSnapshot startSession(String authorisedUser){
+      endSession();
+      this._session = new SessionSnapshot(this, authorisedUser);
+      this._listener = new NotificationListener(this, authorisedUser, this._session);
+      this._listener.start();
+      return this._session;
+   }//end startSession
+
+   /**
+    * Returns the prefetched data of the logged in user, or null.
+    */
+   public SessionSnapshot session(){
+      return this._session;
+   }//end session
+
+   /**
+    * Drops the prefetched data when the user logs out.
+    */
+   public void endSession(){
+      if (this._listener != null){
+         this._listener.shutdown();
+         this._listener = null;
+      }//end if
+      if (this._session != null){
+         this._session.close();
+         this._session = null;
+      }//end if
+   }//end endSession
+
+   /**
+    * Returns the users and connection pairs known to exist, loading them on
+    * first use, or null when they cannot be loaded.
+    */
+   public EdgeFilter edgeFilter(){
+      EdgeFilter edges = this._edges;
+      if (edges == null){
+         try{
+            edges = EdgeFilter.load(this);
+            this._edges = edges;
+         }catch (SQLException e){
+            System.err.println (e.getMessage ());
+         }//end try
+      }//end if
+      return edges;
+   }//end edgeFilter
+
+   /**
+    * Tells a loaded edge filter about a user created in this session.
+    */
+   public void userCreated(String userId){
+      EdgeFilter edges = this._edges;
+      if (edges != null)
+         edges.addUser(userId);
+   }//end userCreated
+
+   /**
+    * Drops the edge filter after another user sent or answered a request, so
+    * the next connection request loads the pairs again. The notification
+    * carries no payload here, so the new pair itself is not known.
+    */
+   public void connectionsChanged(){
+      this._edges = null;
+   }//end connectionsChanged
+
+   /**
+    * Returns the faceted index of work and education history, loading it on
+    * first use, or null when it cannot be loaded.
+    */
+   public DirectoryIndex directory(){
+      if (this._directory == null){
+         try{
+            this._directory = DirectoryIndex.load(this);
+         }catch (SQLException e){
+            System.err.println (e.getMessage ());
+         }//end try
+      }//end if
+      return this._directory;
+   }//end directory
+
+   /**
+    * Rereads one user's work and education rows into a loaded directory
+    * index after they were written.
+    */
+   public void directoryChanged(String userId) throws SQLException {
+      if (this._directory == null)
+         return;
+      ResultTable work = executeQueryAndReturnTable(
+         "SELECT W.userId, W.company, W.role, W.location FROM WORK_EXPR W WHERE W.userId = ?", userId);
+      ResultTable edu = executeQueryAndReturnTable(
+         "SELECT E.userId, E.instituitionName, E.major, E.degree FROM EDUCATIONAL_DETAILS E WHERE E.userId = ?", userId);
+      this._directory.replaceUser(userId, work, edu);
+   }//end directoryChanged
+
+   /**
+    * Returns the index of overlapping tenures, loading it on first use, or
+    * null when it cannot be loaded.
+    */
+   public TenureIndex tenure(){
+      if (this._tenure == null){
+         try{
+            this._tenure = TenureIndex.load(this);
+         }catch (SQLException e){
+            System.err.println (e.getMessage ());
+         }//end try
+      }//end if
+      return this._tenure;
+   }//end tenure
+
+   /**
+    * Rereads one user's tenures into a loaded tenure index after they were
+    * written.
+    */
+   public void tenureChanged(String userId) throws SQLException {
+      if (this._tenure == null)
+         return;
+      ResultTable work = executeQueryAndReturnTable(
+         "SELECT W.userId, W.company, W.startDate, W.endDate FROM WORK_EXPR W WHERE W.userId = ?", userId);
+      ResultTable edu = executeQueryAndReturnTable(
+         "SELECT E.userId, E.instituitionName, E.startdate, E.enddate FROM EDUCATIONAL_DETAILS E WHERE E.userId = ?", userId);
+      this._tenure.replaceUser(userId, work, edu);
+   }//end tenureChanged
+
+   /**
+    * Method to print a ResultTable the way executeQueryAndPrintResult prints
+    * a query result.
+    *
+    * @param table the rows to print
+    * @return the number of rows printed
+    */
+   public static int printTable(ResultTable table){
+      for (int r = 0; r < table.size(); ++r){
+         if (r == 0){
+            for (int i = 0; i < table.columnCount(); ++i)
+               System.out.print(table.columnName(i) + "\t");
+            System.out.println();
+         }//end if
+         for (int i = 0; i < table.columnCount(); ++i)
+            System.out.print (table.getString(r, i) + "\t");
+         System.out.println ();
+      }//end for
+      return table.size();
+   }//end printTable
+
    /**
     * Method to close the physical connection if it is open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      endSession();
+      if (this._router != null){
+         this._router.cleanup ();
+      }//end if
    }//end cleanup
 
    /**
@@ -226,12 +538,12 @@ public class ProfNetwork {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      if (args.length < 3) {
          System.err.println (
             "Usage: " +
-            "java [-classpath <classpath>] " +
+            "java [-classpath <classpath>] [-Drouting=least-loaded] " +
             ProfNetwork.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [replica [host:]port ...]");
          return;
       }//end if
 
@@ -246,6 +558,10 @@ public class ProfNetwork {
          String dbport = args[1];
          String user = args[2];
          esql = new ProfNetwork (dbname, dbport, user, "");
+         for (int i = 3; i < args.length; ++i) {
+            String replica = args[i].contains(":") ? args[i] : "localhost:" + args[i];
+            esql.addReplica ("jdbc:postgresql://" + replica + "/" + dbname);
+         }//end for
 
          boolean keepon = true;
          while(keepon) {
@@ -265,9 +581,13 @@ public class ProfNetwork {
             if (authorisedUser != null) {
               boolean usermenu = true;
               
-              //output user profile
+              //fetch friends, requests and inbox in the background
+              esql.startSession(authorisedUser);
+
+              //output user profile on the menu's connection, it is needed right away
               String userprofile1 = String.format("SELECT U.userId, U.email, U.name, U.dateOfBirth FROM USR U WHERE U.userId = '%s';", authorisedUser);
               int returnprofile = esql.executeQueryAndPrintResult(userprofile1);	//2.1.1
+              ShowCounters(esql, authorisedUser);
               
               
               while(usermenu) {
@@ -281,6 +601,8 @@ public class ProfNetwork {
                 System.out.println("6. Manage Connection Requests");
                 System.out.println("7. View Profiles & Send Connection Requests");
                 System.out.println("8. View Messages and Option to Delete");
+                System.out.println("10. Search Messages");
+                System.out.println("11. Directory Search");
                 System.out.println(".........................");
                 System.out.println("9. Log out");
                 switch (readChoice()){
@@ -293,8 +615,10 @@ public class ProfNetwork {
                    case 6: ManageConnectionRequests(esql, authorisedUser); break;
                    case 7: ViewFriendsProfile(esql, authorisedUser); break;
                    case 8: ViewMessages(esql, authorisedUser); break;
+                   case 10: SearchMessages(esql, authorisedUser); break;
+                   case 11: DirectorySearch(esql); break;
                    
-                   case 9: usermenu = false; break;
+                   case 9: usermenu = false; esql.endSession(); break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
               }
@@ -306,6 +630,8 @@ public class ProfNetwork {
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
+               if (args.length > 3)
+                  System.out.println(esql.routingReport());
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
@@ -316,6 +642,28 @@ public class ProfNetwork {
       }//end try
    }//end main
 
+   /*
+    * Prints the counts kept in USER_COUNTERS by the triggers in
+    * create_counters.sql; one primary key lookup instead of five COUNTs.
+    */
+   public static void ShowCounters(ProfNetwork esql, String authorisedUser){
+      try{
+         String query = String.format("SELECT C.pendingRequests, C.friends, C.inboxMessages, C.unreadMessages, C.outboxMessages FROM USER_COUNTERS C WHERE C.userId = '%s'", authorisedUser);
+         ResultTable counters = esql.executeQueryAndReturnTable(query);
+         //no row yet means nothing was ever counted for this user
+         int pending = counters.isEmpty() ? 0 : counters.getInt(0, 0);
+         int friends = counters.isEmpty() ? 0 : counters.getInt(0, 1);
+         int inbox = counters.isEmpty() ? 0 : counters.getInt(0, 2);
+         int unread = counters.isEmpty() ? 0 : counters.getInt(0, 3);
+         int outbox = counters.isEmpty() ? 0 : counters.getInt(0, 4);
+         System.out.printf("Friends: %d\tPending requests: %d\tInbox: %d (%d unread)\tOutbox: %d%n",
+                           friends, pending, inbox, unread, outbox);
+      }catch(Exception e){
+         //counters are optional, the menu works without create_counters.sql
+         System.err.println (e.getMessage ());
+      }
+   }//end ShowCounters
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -360,6 +708,7 @@ public class ProfNetwork {
 	 String query = String.format("INSERT INTO USR (userId, password, email) VALUES ('%s','%s','%s')", login, password, email);
 
          esql.executeUpdate(query);
+         esql.userCreated(login);
          System.out.println ("User successfully created!");
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -391,6 +740,16 @@ public class ProfNetwork {
    
    public static String FriendList(ProfNetwork esql, String authorisedUser){
 	   try {
+	   SessionSnapshot session = esql.session();
+	   List<String> friends = session == null ? null : session.friends();
+	   if (friends != null) {
+		   //already fetched after login
+		   if (!friends.isEmpty())
+			   System.out.println("connectionid\t");
+		   for (String friend : friends)
+			   System.out.println(friend + "\t");
+		   return null;
+	   }
 	   String query = String.format("SELECT C1.connectionId FROM CONNECTION_USR C1 WHERE C1.userId = '%s' AND C1.status = 'Accept' UNION SELECT C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId = '%s' AND C2.status = 'Accept';", authorisedUser, authorisedUser);
        int userNum = esql.executeQueryAndPrintResult(query);
 	   } catch(Exception e){
@@ -404,7 +763,9 @@ public class ProfNetwork {
 	public static String UpdateProfile(ProfNetwork esql, String authorisedUser){
 	try {
 		   System.out.println("\t1. update password");
-		   System.out.println("\t2. Exit");
+		   System.out.println("\t2. add work experience");
+		   System.out.println("\t3. add education");
+		   System.out.println("\t4. Exit");
 		   switch (readChoice()){
 		   	case 1:
 		   		System.out.print("\tEnter new user password: ");
@@ -413,6 +774,40 @@ public class ProfNetwork {
 		   		esql.executeUpdate(query);
 		   	 break;
 		   	case 2:
+		   		System.out.print("\tEnter company: ");
+		   		String company = in.readLine();
+		   		System.out.print("\tEnter role: ");
+		   		String role = in.readLine();
+		   		System.out.print("\tEnter location: ");
+		   		String location = in.readLine();
+		   		System.out.print("\tEnter start date (mm/dd/yyyy): ");
+		   		String workStart = in.readLine();
+		   		System.out.print("\tEnter end date (mm/dd/yyyy, blank if current): ");
+		   		String workEnd = in.readLine();
+		   		String queryWork = String.format("INSERT INTO WORK_EXPR (userId, company, role, location, startDate, endDate) VALUES ('%s', '%s', '%s', '%s', '%s', %s);",
+		   				authorisedUser, company, role, location, workStart, workEnd.trim().isEmpty() ? "NULL" : "'" + workEnd + "'");
+		   		esql.executeUpdate(queryWork);
+		   		esql.directoryChanged(authorisedUser);
+		   		esql.tenureChanged(authorisedUser);
+		   	 break;
+		   	case 3:
+		   		System.out.print("\tEnter institution: ");
+		   		String institution = in.readLine();
+		   		System.out.print("\tEnter major: ");
+		   		String major = in.readLine();
+		   		System.out.print("\tEnter degree: ");
+		   		String degree = in.readLine();
+		   		System.out.print("\tEnter start date (mm/dd/yyyy): ");
+		   		String eduStart = in.readLine();
+		   		System.out.print("\tEnter end date (mm/dd/yyyy, blank if current): ");
+		   		String eduEnd = in.readLine();
+		   		String queryEdu = String.format("INSERT INTO EDUCATIONAL_DETAILS (userId, instituitionName, major, degree, startdate, enddate) VALUES ('%s', '%s', '%s', '%s', '%s', %s);",
+		   				authorisedUser, institution, major, degree, eduStart, eduEnd.trim().isEmpty() ? "NULL" : "'" + eduEnd + "'");
+		   		esql.executeUpdate(queryEdu);
+		   		esql.directoryChanged(authorisedUser);
+		   		esql.tenureChanged(authorisedUser);
+		   	 break;
+		   	case 4:
 		   		System.out.println("Exiting Update Profile");
 		   	 break;
 		   	default : System.out.println("Unrecognized choice!"); break;
@@ -428,10 +823,9 @@ public class ProfNetwork {
         try{
                 String query = "SELECT M.msgId FROM MESSAGE M WHERE M.msgId = (SELECT MAX(M2.msgId) FROM MESSAGE M2)";
 
-                List<List<String>> messageId = new ArrayList<List<String>>(); //create new array list
-                messageId = esql.executeQueryAndReturnResult(query); //newmessageId that is one higher than nax in the current table
+                ResultTable messageId = esql.executeQueryOnPrimary(query); //newmessageId that is one higher than nax in the current table
 
-                int temp_Id = Integer.parseInt(messageId.get(0).get(0));
+                int temp_Id = messageId.getInt(0, 0);
 
                 //System.out.print("Enter your name as the sender: ");
                 //String sender = in.readLine();
@@ -456,14 +850,14 @@ public class ProfNetwork {
 		try {
 			System.out.println("HELLO");
 			String query = String.format("SELECT C1.connectionId FROM CONNECTION_USR C1 WHERE C1.userId = '%s' AND C1.status = 'Accept' UNION SELECT C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId = '%s' AND C2.status = 'Accept';", authorisedUser, authorisedUser);
-            List<List<String>> friends = new ArrayList<List<String>>();
-            friends = esql.executeQueryAndReturnResult(query);
+            ResultTable friends = esql.executeQueryAndReturnTable(query);
 			//System.out.println(friends);
             //System.out.println("HELLO2");
 			if(!friends.isEmpty()) {
 				System.out.println("Hey! You have friends! Go talk to them!");
 				return null;
 			}
+			ShowColleagues(esql, authorisedUser, 5);
 			//System.out.println("HELLO3");
 			for(int i = 0; i < 5; i++) {
 				System.out.println("\t1. Send Connection Request");
@@ -472,9 +866,7 @@ public class ProfNetwork {
 					case 1:
 						System.out.print("\tEnter Valid Friend Name: ");
 						String friendName = in.readLine();
-						String queryAddConnection = String.format("insert into CONNECTION_USR values ('%s', '%s', 'Request');", authorisedUser, friendName);
-                    	esql.executeUpdate(queryAddConnection);
-                    	System.out.println("Connection Request Sent");
+						RequestConnection(esql, authorisedUser, friendName);
 					 break;
 					case 2:
 						i = 5;
@@ -491,6 +883,57 @@ public class ProfNetwork {
 		    }
 		return null;
 	}
+	/*
+	 * Sends a connection request unless the edge filter already knows it
+	 * cannot succeed: a request to yourself, one you already sent, or one the
+	 * other user already sent you. A target the filter does not know is only
+	 * looked up in USR after the user confirms it.
+	 * @return true when the request was inserted
+	 **/
+	public static boolean RequestConnection(ProfNetwork esql, String authorisedUser, String target) throws IOException {
+		target = target.trim();
+		EdgeFilter edges = esql.edgeFilter();
+		try {
+			if (edges != null) {
+				switch (edges.check(authorisedUser, target)) {
+					case EdgeFilter.SELF:
+						System.out.println("You cannot send a connection request to yourself");
+						return false;
+					case EdgeFilter.DUPLICATE:
+						System.out.printf("You already asked %s to connect; the request is pending, accepted or rejected%n", target);
+						return false;
+					case EdgeFilter.REVERSE:
+						System.out.printf("%s already asked to connect with you; if it is still pending, answer it in Manage Connection Requests%n", target);
+						return false;
+					case EdgeFilter.UNKNOWN_USER:
+						System.out.printf("No user %s is known. Send anyway (y for yes; anything else is no)?: ", target);
+						if (!"y".equals(in.readLine()))
+							return false;
+						if (!edges.userExists(esql, target)) {
+							System.out.printf("User %s does not exist%n", target);
+							return false;
+						}
+						//a user created since the filter was loaded, check the pair again
+						if (edges.check(authorisedUser, target) != EdgeFilter.OK) {
+							System.out.println("A connection with this user already exists");
+							return false;
+						}
+						break;
+					default:
+						break;
+				}
+			}
+			String queryAddConnection = String.format("insert into CONNECTION_USR values ('%s', '%s', 'Request');", authorisedUser, target);
+			esql.executeUpdate(queryAddConnection);
+			if (edges != null) edges.add(authorisedUser, target);
+			System.out.println("Connection Request Sent");
+			return true;
+		}catch(SQLException e){
+			//e.g. a request another client inserted after the filter was loaded
+			System.err.println (e.getMessage ());
+			return false;
+		}
+	}
 	public static String SearchPeople(ProfNetwork esql){
 		try {
 			System.out.print("\tEnter username: ");
@@ -507,19 +950,85 @@ public class ProfNetwork {
 		    }
 		return null;
 	}
+	/* People whose time at one of the user's companies or institutions overlapped the user's */
+	public static void ShowColleagues(ProfNetwork esql, String userId, int limit){
+		try {
+			TenureIndex tenure = esql.tenure();
+			if (tenure != null) {
+				TenureIndex.Result result = tenure.colleagues(userId, limit);
+				if (result.total > 0) {
+					System.out.println("\tPeople who were there at the same time:");
+					TenureIndex.print(result);
+				}
+				return;
+			}
+			//without the index the GiST indexes on the tenure ranges serve the self-join
+			String query =
+				"SELECT C.userId, C.place, lower(C.together) AS since, COALESCE((upper(C.together) - 1)::text, 'present') AS until " +
+				"FROM (SELECT DISTINCT ON (T.userId) T.userId, T.place, T.together FROM (" +
+				"SELECT O.userId, O.company AS place, daterange(O.startDate, O.endDate, '[]') * daterange(M.startDate, M.endDate, '[]') AS together " +
+				"FROM WORK_EXPR M JOIN WORK_EXPR O ON O.company = M.company " +
+				"AND daterange(O.startDate, O.endDate, '[]') && daterange(M.startDate, M.endDate, '[]') " +
+				"WHERE M.userId = ? AND O.userId <> M.userId " +
+				"AND M.startDate <= COALESCE(M.endDate, M.startDate) AND O.startDate <= COALESCE(O.endDate, O.startDate) " +
+				"UNION ALL " +
+				"SELECT O.userId, O.instituitionName, daterange(O.startdate, O.enddate, '[]') * daterange(M.startdate, M.enddate, '[]') " +
+				"FROM EDUCATIONAL_DETAILS M JOIN EDUCATIONAL_DETAILS O ON O.instituitionName = M.instituitionName " +
+				"AND daterange(O.startdate, O.enddate, '[]') && daterange(M.startdate, M.enddate, '[]') " +
+				"WHERE M.userId = ? AND O.userId <> M.userId " +
+				"AND M.startdate <= COALESCE(M.enddate, M.startdate) AND O.startdate <= COALESCE(O.enddate, O.startdate)" +
+				") T ORDER BY T.userId, upper(T.together) - lower(T.together) DESC NULLS FIRST) C " +
+				"ORDER BY upper(C.together) - lower(C.together) DESC NULLS FIRST, C.userId LIMIT " + limit;
+			ResultTable colleagues = esql.executeQueryAndReturnTable(query, userId, userId);
+			if (!colleagues.isEmpty()) {
+				System.out.println("\tPeople who were there at the same time:");
+				printTable(colleagues);
+			}
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}
+	}
+	/* Find people by company, role, location, institution, major and degree */
+	public static void DirectorySearch(ProfNetwork esql){
+		try {
+			DirectoryIndex directory = esql.directory();
+			if (directory == null)
+				return;
+			String[] filters = new String[DirectoryIndex.FACETS];
+			System.out.println("\tLeave a field blank to match anything");
+			for (int f = 0; f < DirectoryIndex.FACETS; f++) {
+				System.out.printf("\tEnter %s: ", DirectoryIndex.FACET_NAMES[f]);
+				filters[f] = in.readLine();
+			}
+			DirectoryIndex.Result result = directory.search(filters, 20, 5);
+			System.out.printf("\t%d people found%n", result.total);
+			DirectoryIndex.print(result);
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}
+	}
 	public static void ManageConnectionRequests(ProfNetwork esql, String authorisedUser){
         try{
                 //the one with connectionId is the one whose receiving the pending requests
                 String query = String.format("SELECT C.userId FROM CONNECTION_USR C WHERE C.connectionId = '%s' AND C.status = 'Request'", authorisedUser);
 
-                List<List<String>> user_list = new ArrayList<List<String>>(); //create new array list
-
-                user_list = esql.executeQueryAndReturnResult(query);
+                SessionSnapshot session = esql.session();
+                List<String> user_list = session == null ? null : session.pending(); //already fetched after login
+                if (user_list == null) {
+                        ResultTable pending = esql.executeQueryAndReturnTable(query);
+                        user_list = new ArrayList<String>();
+                        for (int i = 0; i < pending.size(); i++)
+                                user_list.add(pending.getString(i, 0));
+                }
                 int list_size = user_list.size();       //number of user with a pending request
 
                 System.out.printf("\tYou have %d Pending Requests!\n", list_size);
 
-                esql.executeQueryAndPrintResult(query); //print all user in the list
+                //print all user in the list
+                if (list_size > 0)
+                        System.out.println("userid\t");
+                for (String requester : user_list)
+                        System.out.println(requester + "\t");
 
                 for(int i = 0; i < list_size; i++) {
                         //choose whether to accept or reject the next request
@@ -528,13 +1037,15 @@ public class ProfNetwork {
 
                         switch(request_choice) {
                                 case "a":
-                                        String query2 = String.format("UPDATE CONNECTION_USR SET status = 'Accept' WHERE userId = '%s' AND connectionID = '%s'", user_list.get(i).get(0), authorisedUser); //friend request accepted
+                                        String query2 = String.format("UPDATE CONNECTION_USR SET status = 'Accept' WHERE userId = '%s' AND connectionID = '%s'", user_list.get(i), authorisedUser); //friend request accepted
                                         esql.executeUpdate(query2);
+                                        if (session != null) session.accepted(user_list.get(i));
                                         break;
 
                                 case "r":
-                                        String query3 = String.format("UPDATE CONNECTION_USR SET status = 'Reject' WHERE userId = '%s' AND connectionID = '%s'", user_list.get(i).get(0), authorisedUser);  //friend request denied
+                                        String query3 = String.format("UPDATE CONNECTION_USR SET status = 'Reject' WHERE userId = '%s' AND connectionID = '%s'", user_list.get(i), authorisedUser);  //friend request denied
                                         esql.executeUpdate(query3);
+                                        if (session != null) session.rejected(user_list.get(i));
                                         break;
                                 default:
                                         break;
@@ -568,6 +1079,7 @@ public class ProfNetwork {
 	                        		int userNum1 = esql.executeQueryAndPrintResult(query1);
 	                        		int userNum2 = esql.executeQueryAndPrintResult(query2);
 	                        		int userNum3 = esql.executeQueryAndPrintResult(query3);
+	                        		ShowColleagues(esql, authorisedUser, 10);
 	                        		break;
 	                        case 3:
 	                        	connectionLevel += 1;
@@ -592,15 +1104,12 @@ public class ProfNetwork {
 	                    			System.out.println("3. exit profile");
 	                    			switch(readChoice()) {
 	                    				case 1: 
-	                    					String query7 = String.format("insert into CONNECTION_USR values ('%s', '%s', 'Request');", authorisedUser, usernameConnection);
-	        	                        	int userNum7 = esql.executeQuery(query7);
-	        	                        	System.out.println("Connection Request Sent");
+	                    					RequestConnection(esql, authorisedUser, usernameConnection);
 	                    				 break;
 	                    				case 2:
-	                    					List<List<String>> messageId = new ArrayList<List<String>>(); //create new array list
 	                    					String queryMsg = "SELECT M.msgId FROM MESSAGE M WHERE M.msgId = (SELECT MAX(M2.msgId) FROM MESSAGE M2)";
-	                    	                messageId = esql.executeQueryAndReturnResult(queryMsg); //newmessageId that is one higher than nax in the current table
-	                    	                int temp_Id = Integer.parseInt(messageId.get(0).get(0));
+	                    	                ResultTable messageId = esql.executeQueryOnPrimary(queryMsg); //newmessageId that is one higher than nax in the current table
+	                    	                int temp_Id = messageId.getInt(0, 0);
 	                    	                System.out.println("Enter your message below:");
 	                    	                System.out.println(".........................");
 	                    	                String message = in.readLine(); //enter the contents your message, no more than 500 characters
@@ -639,6 +1148,50 @@ public class ProfNetwork {
 
         return null;
 }
+	/* Search the messages you received or sent and still have, best match first */
+	public static void SearchMessages(ProfNetwork esql, String authorisedUser){
+        try{
+                System.out.print("\tEnter words to search for: ");
+                String words = in.readLine();
+                //rank and filter in the inner query, so only one page of snippets is built;
+                //the to_tsvector expression must match the GIN indexes in create_index.sql
+                String query = "SELECT R.msgId, R.senderId, R.receiverId, R.sendTime, round(R.rank::numeric, 4) AS rank, " +
+                        "ts_headline('english', rtrim(R.contents), plainto_tsquery('english', ?), 'StartSel=[, StopSel=], MinWords=8, MaxWords=20') AS snippet " +
+                        "FROM (SELECT M.msgId, M.senderId, M.receiverId, M.sendTime, M.contents, " +
+                        "ts_rank(to_tsvector('english', M.contents), plainto_tsquery('english', ?)) AS rank " +
+                        "FROM MESSAGE M WHERE ((M.receiverId = ? AND M.deleteStatus IN (0, 1)) OR (M.senderId = ? AND M.deleteStatus IN (0, 2))) " +
+                        "AND to_tsvector('english', M.contents) @@ plainto_tsquery('english', ?) " +
+                        "ORDER BY rank DESC, M.msgId DESC LIMIT ? OFFSET ?) R " +
+                        "ORDER BY R.rank DESC, R.msgId DESC";
+                int page = 0;
+                while (true) {
+                        //one row past the page tells whether there is a next page
+                        ResultTable results = esql.executeQueryAndReturnTable(query, words, words, authorisedUser, authorisedUser, words,
+                                                                              SEARCH_PAGE + 1, page * SEARCH_PAGE);
+                        if (results.isEmpty()) {
+                                System.out.println(page == 0 ? "No messages match" : "No more matches");
+                                return;
+                        }
+                        int shown = Math.min(results.size(), SEARCH_PAGE);
+                        System.out.printf("\tPage %d%n", page + 1);
+                        System.out.println("msgId\tfrom\tto\tsent\trank\tsnippet");
+                        for (int i = 0; i < shown; i++) {
+                                for (int c = 0; c < results.columnCount(); c++)
+                                        System.out.print(results.getString(i, c) + "\t");
+                                System.out.println();
+                        }
+                        if (results.size() <= SEARCH_PAGE)
+                                return;
+                        System.out.print("\tShow the next page (n for next; anything else is stop)?: ");
+                        if (!"n".equals(in.readLine()))
+                                return;
+                        page++;
+                }
+        }catch(Exception e){
+                System.err.println (e.getMessage ());
+        }
+   }
+
 	/* View messages and choose whether to delete them */
 	public static void ViewMessages(ProfNetwork esql, String authorisedUser){
         try{
@@ -650,18 +1203,19 @@ public class ProfNetwork {
 
               String query1 = String.format("SELECT M.msgId, M.contents FROM MESSAGE M WHERE M.senderId = '%s' AND (M.deleteStatus = 0 OR M.deleteStatus = 2)", authorisedUser);
 
-                List<List<String>> message1_list = new ArrayList<List<String>>(); //create new array list
-                message1_list = esql.executeQueryAndReturnResult(query);
+                SessionSnapshot session = esql.session();
+                ResultTable message1_list = session == null ? null : session.inbox(); //already fetched after login
+                if (message1_list == null)
+                        message1_list = esql.executeQueryAndReturnTable(query);
                 int list_size1 = message1_list.size();       //number of user with a pending request
 
-                List<List<String>> message2_list = new ArrayList<List<String>>(); //create new array list
-                message2_list = esql.executeQueryAndReturnResult(query1);
+                ResultTable message2_list = esql.executeQueryAndReturnTable(query1);
                 int list_size2 = message2_list.size();       //number of user with a pending request
 
                 //user is considered the receiver
                 for(int i = 0; i < list_size1; i++) {
-                        System.out.printf("\n%s", message1_list.get(i).get(0));
-                        System.out.printf("\t%s", message1_list.get(i).get(1));
+                        System.out.printf("\n%s", message1_list.getString(i, 0));
+                        System.out.printf("\t%s", message1_list.getString(i, 1));
                         System.out.printf("\nDo you wish to delete message %s (y for yes; anything else is no)?: ", i+1);    //choose whether to delete this message, and only this message.
                         String delete_choice = in.readLine();
 
@@ -675,16 +1229,25 @@ public class ProfNetwork {
 
                                         esql.executeUpdate(query2);
                                         esql.executeUpdate(query3);
+                                        if (session != null) session.inboxChanged();
                                         break;
                                 default:
                                         break;
                         }
                 }
+                //only the messages listed above have been shown; newer ones stay unread
+                if (list_size1 > 0) {
+                        StringBuilder shown = new StringBuilder();
+                        for (int i = 0; i < list_size1; i++)
+                                shown.append(i == 0 ? "" : ", ").append(message1_list.getInt(i, 0));
+                        String query6 = String.format("UPDATE MESSAGE SET status = 'Read' WHERE receiverId = '%s' AND status <> 'Read' AND msgId IN (%s)", authorisedUser, shown);
+                        esql.executeUpdate(query6);
+                }
 
 		//user is now considered the sender
                 for(int i = 0; i < list_size2; i++) {
-                        System.out.printf("\n%s", message2_list.get(i).get(0));
-                        System.out.printf("\t%s", message2_list.get(i).get(1));
+                        System.out.printf("\n%s", message2_list.getString(i, 0));
+                        System.out.printf("\t%s", message2_list.getString(i, 1));
                         System.out.printf("\nDo you wish to delete message %s (y for yes; anything else is no)?: ", i+1);    //choose whether to delete this message, and only this message.
                         String delete_choice2 = in.readLine();
 
@@ -698,6 +1261,7 @@ public class ProfNetwork {
 
                                         esql.executeUpdate(query4);
                                         esql.executeUpdate(query5);
+                                        if (session != null) session.inboxChanged();  //messages sent to yourself
                                         break;
                                 default:
                                         break;
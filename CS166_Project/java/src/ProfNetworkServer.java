@@ -0,0 +1,591 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Server mode for ProfNetwork: the operations of the terminal menu exposed
+ * as JSON over HTTP, so one JVM serves many clients at once.
+ *
+ *    POST /users        {"userId","password","email"}   create user
+ *    POST /login        {"userId","password"}           returns {"token"}
+ *    POST /logout
+ *    GET  /friends
+ *    GET  /profile[?userId=]                            own or another profile
+ *    GET  /search?userId=
+ *    POST /messages     {"to","contents"}
+ *    GET  /inbox[?offset=&limit=]
+ *    GET  /requests                                     pending requests
+ *    POST /requests     {"userId","action":"accept|reject"}
+ *    POST /connections  {"to"}                          send a request
+ *
+ * Every call except /users and /login needs the token from /login in an
+ * "Authorization: Bearer <token>" header. Requests run on a bounded worker
+ * pool and share a ConnectionPool; all SQL uses bind parameters.
+ */
+public class ProfNetworkServer implements HttpHandler {
+
+   // sessions idle longer than this are dropped
+   static final long SESSION_IDLE_MILLIS = 30 * 60 * 1000L;
+   static final int MAX_BODY = 64 * 1024;
+   static final int DEFAULT_PAGE = 20;
+
+   private final ConnectionPool _pool;
+   private final Map<String, Session> _sessions = new ConcurrentHashMap<String, Session>();
+   private final SecureRandom _random = new SecureRandom();
+
+   // held while a message takes the next msgId, see newMessage
+   private final Object _msgIdLock = new Object();
+
+   static final class Session {
+      final String userId;
+      volatile long lastSeen;
+      Session (String userId) { this.userId = userId; this.lastSeen = System.currentTimeMillis(); }
+   }
+
+   // an error that maps directly to an HTTP status
+   static final class HttpError extends Exception {
+      private static final long serialVersionUID = 1L;
+      final int status;
+      HttpError (int status, String message) { super(message); this.status = status; }
+   }
+
+   public ProfNetworkServer (ConnectionPool pool) {
+      this._pool = pool;
+   }
+
+   /* --------------------------------- dispatch ------------------------------ */
+
+   public void handle (HttpExchange ex) throws IOException {
+      int status = 200;
+      String body;
+      try {
+         body = route(ex);
+         if (ex.getAttribute("created") != null)
+            status = 201;
+      } catch (HttpError e) {
+         status = e.status;
+         body = "{\"error\":" + Json.quote(e.getMessage()) + "}";
+      } catch (SQLException e) {
+         // this driver reports no SQLSTATE, so conflicts the client can cause
+         // are checked before the write and answered as HttpError
+         status = 500;
+         body = "{\"error\":" + Json.quote(e.getMessage()) + "}";
+      } catch (IOException e) {
+         // the request body could not be read, e.g. the client stopped sending
+         status = 400;
+         body = "{\"error\":" + Json.quote("cannot read request: " + e.getMessage()) + "}";
+      } catch (RuntimeException e) {
+         status = 500;
+         body = "{\"error\":" + Json.quote(String.valueOf(e.getMessage())) + "}";
+      }
+      byte[] bytes = body.getBytes("UTF-8");
+      ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      ex.sendResponseHeaders(status, bytes.length);
+      OutputStream out = ex.getResponseBody();
+      out.write(bytes);
+      out.close();
+   }//end handle
+
+   private String route (HttpExchange ex) throws HttpError, SQLException, IOException {
+      String method = ex.getRequestMethod();
+      String path = ex.getRequestURI().getPath();
+      Map<String, String> query = parseQuery(ex.getRequestURI().getRawQuery());
+
+      if (path.equals("/users") && method.equals("POST"))
+         return created(ex, createUser(readBody(ex)));
+      if (path.equals("/login") && method.equals("POST"))
+         return logIn(readBody(ex));
+
+      String user = authorise(ex);
+      if (path.equals("/logout") && method.equals("POST")) {
+         this._sessions.remove(token(ex));
+         return "{\"loggedOut\":true}";
+      }
+      if (path.equals("/friends") && method.equals("GET"))
+         return friendList(user);
+      if (path.equals("/profile") && method.equals("GET"))
+         return profile(query.containsKey("userId") ? query.get("userId") : user, true);
+      if (path.equals("/search") && method.equals("GET"))
+         return profile(required(query, "userId"), false);
+      if (path.equals("/messages") && method.equals("POST"))
+         return created(ex, newMessage(user, readBody(ex)));
+      if (path.equals("/inbox") && method.equals("GET"))
+         return inbox(user, intParam(query, "offset", 0), intParam(query, "limit", DEFAULT_PAGE));
+      if (path.equals("/requests") && method.equals("GET"))
+         return pendingRequests(user);
+      if (path.equals("/requests") && method.equals("POST"))
+         return answerRequest(user, readBody(ex));
+      if (path.equals("/connections") && method.equals("POST"))
+         return created(ex, sendRequest(user, readBody(ex)));
+      throw new HttpError(404, "no route for " + method + " " + path);
+   }//end route
+
+   private static String created (HttpExchange ex, String body) {
+      ex.setAttribute("created", Boolean.TRUE);
+      return body;
+   }
+
+   /* ------------------------------ sessions --------------------------------- */
+
+   private static String token (HttpExchange ex) {
+      String auth = ex.getRequestHeaders().getFirst("Authorization");
+      if (auth == null || !auth.startsWith("Bearer "))
+         return null;
+      return auth.substring(7).trim();
+   }
+
+   private String authorise (HttpExchange ex) throws HttpError {
+      String token = token(ex);
+      Session s = token == null ? null : this._sessions.get(token);
+      long now = System.currentTimeMillis();
+      if (s == null || now - s.lastSeen > SESSION_IDLE_MILLIS) {
+         if (s != null)
+            this._sessions.remove(token);
+         throw new HttpError(401, "log in first");
+      }
+      s.lastSeen = now;
+      return s.userId;
+   }
+
+   private String newToken () {
+      byte[] raw = new byte[18];
+      this._random.nextBytes(raw);
+      StringBuilder sb = new StringBuilder();
+      for (byte b : raw)
+         sb.append(String.format("%02x", b & 0xff));
+      return sb.toString();
+   }
+
+   /**
+    * Drops sessions that have been idle too long.
+    */
+   public void expireSessions () {
+      long now = System.currentTimeMillis();
+      Iterator<Session> it = this._sessions.values().iterator();
+      while (it.hasNext())
+         if (now - it.next().lastSeen > SESSION_IDLE_MILLIS)
+            it.remove();
+   }
+
+   /* ------------------------------ operations ------------------------------- */
+
+   private String createUser (Map<String, String> body) throws HttpError, SQLException {
+      if (exists(required(body, "userId")))
+         throw new HttpError(409, "user " + body.get("userId") + " already exists");
+      update("INSERT INTO USR (userId, password, email) VALUES (?, ?, ?)",
+             required(body, "userId"), required(body, "password"), required(body, "email"));
+      return "{\"created\":" + Json.quote(body.get("userId")) + "}";
+   }
+
+   private String logIn (Map<String, String> body) throws HttpError, SQLException {
+      String login = required(body, "userId");
+      String rows = query("SELECT userId FROM USR WHERE userId = ? AND password = ?",
+                          login, required(body, "password"));
+      if (rows.equals("[]"))
+         throw new HttpError(401, "wrong user or password");
+      String token = newToken();
+      this._sessions.put(token, new Session(login));
+      return "{\"token\":" + Json.quote(token) + "}";
+   }
+
+   private String friendList (String user) throws SQLException {
+      return query("SELECT C1.connectionId AS friend FROM CONNECTION_USR C1 WHERE C1.userId = ? AND C1.status = 'Accept' " +
+                   "UNION SELECT C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId = ? AND C2.status = 'Accept'",
+                   user, user);
+   }
+
+   private String profile (String userId, boolean withBirthday) throws HttpError, SQLException {
+      String usr = query(withBirthday
+                            ? "SELECT U.userId, U.email, U.name, U.dateOfBirth FROM USR U WHERE U.userId = ?"
+                            : "SELECT U.userId, U.email, U.name FROM USR U WHERE U.userId = ?",
+                         userId);
+      if (usr.equals("[]"))
+         throw new HttpError(404, "no user " + userId);
+      String work = query("SELECT W.company, W.role, W.location, W.startDate, W.endDate FROM WORK_EXPR W WHERE W.userId = ?", userId);
+      String edu = query("SELECT E.instituitionName, E.major, E.degree, E.startDate, E.enddate FROM EDUCATIONAL_DETAILS E WHERE E.userId = ?", userId);
+      // the user query returns a one element array
+      return "{\"user\":" + usr.substring(1, usr.length() - 1) + ",\"work\":" + work + ",\"education\":" + edu + "}";
+   }
+
+   private String newMessage (String user, Map<String, String> body) throws HttpError, SQLException {
+      String to = required(body, "to");
+      String contents = required(body, "contents");
+      if (contents.length() > 500)
+         throw new HttpError(400, "message longer than 500 characters");
+      if (!exists(to))
+         throw new HttpError(404, "no user " + to);
+      // msgId is not a sequence; one insert at a time takes MAX + 1, and
+      // autocommit makes it visible before the next one reads MAX
+      synchronized (this._msgIdLock) {
+         update("INSERT INTO MESSAGE (msgId, senderId, receiverId, contents, sendTime, deleteStatus, status) " +
+                "SELECT COALESCE(MAX(msgId), 0) + 1, ?, ?, ?, now(), 0, 'Sent' FROM MESSAGE",
+                user, to, contents);
+      }
+      return "{\"created\":true}";
+   }
+
+   private String inbox (String user, int offset, int limit) throws SQLException {
+      return query("SELECT M.msgId, M.senderId, M.contents, M.sendTime FROM MESSAGE M " +
+                   "WHERE M.receiverId = ? AND (M.deleteStatus = 0 OR M.deleteStatus = 1) " +
+                   "ORDER BY M.msgId DESC LIMIT " + Math.max(1, Math.min(limit, 100)) +
+                   " OFFSET " + Math.max(0, offset),
+                   user);
+   }
+
+   private String pendingRequests (String user) throws SQLException {
+      return query("SELECT C.userId FROM CONNECTION_USR C WHERE C.connectionId = ? AND C.status = 'Request'", user);
+   }
+
+   private String answerRequest (String user, Map<String, String> body) throws HttpError, SQLException {
+      String action = required(body, "action");
+      String status;
+      if (action.equals("accept")) status = "Accept";
+      else if (action.equals("reject")) status = "Reject";
+      else throw new HttpError(400, "action must be accept or reject");
+      int n = update("UPDATE CONNECTION_USR SET status = ? WHERE userId = ? AND connectionId = ? AND status = 'Request'",
+                     status, required(body, "userId"), user);
+      if (n == 0)
+         throw new HttpError(404, "no pending request from " + body.get("userId"));
+      return "{\"status\":" + Json.quote(status) + "}";
+   }
+
+   private String sendRequest (String user, Map<String, String> body) throws HttpError, SQLException {
+      String to = required(body, "to");
+      if (to.equals(user))
+         throw new HttpError(400, "cannot connect to yourself");
+      if (!exists(to))
+         throw new HttpError(404, "no user " + to);
+      // either direction already holds the pair, whatever its status
+      if (!query("SELECT C.status FROM CONNECTION_USR C WHERE (C.userId = ? AND C.connectionId = ?) " +
+                 "OR (C.userId = ? AND C.connectionId = ?)", user, to, to, user).equals("[]"))
+         throw new HttpError(409, "a connection with " + to + " already exists");
+      update("INSERT INTO CONNECTION_USR (userId, connectionId, status) VALUES (?, ?, 'Request')",
+             user, required(body, "to"));
+      return "{\"created\":" + Json.quote(body.get("to")) + "}";
+   }
+
+   /* ------------------------------- JDBC helpers ---------------------------- */
+
+   private boolean exists (String userId) throws SQLException {
+      return !query("SELECT U.userId FROM USR U WHERE U.userId = ?", userId).equals("[]");
+   }
+
+   /*
+    * Whether a connection whose statement failed is still usable. This
+    * driver gives no SQLSTATE to tell a lost connection from a bad query,
+    * so the connection is asked directly.
+    */
+   private static boolean isBroken (Connection c) {
+      try {
+         if (c.isClosed())
+            return true;
+         Statement stmt = c.createStatement();
+         try {
+            stmt.executeQuery("SELECT 1").close();
+            return false;
+         } finally {
+            stmt.close();
+         }
+      } catch (SQLException e) {
+         return true;
+      }
+   }
+
+   private int update (String sql, String... params) throws SQLException {
+      Connection c = this._pool.borrow();
+      boolean broken = false;
+      try {
+         PreparedStatement stmt = c.prepareStatement(sql);
+         try {
+            for (int i = 0; i < params.length; ++i)
+               stmt.setString(i + 1, params[i]);
+            return stmt.executeUpdate();
+         } finally {
+            stmt.close();
+         }
+      } catch (SQLException e) {
+         broken = isBroken(c);
+         throw e;
+      } finally {
+         this._pool.release(c, broken);
+      }
+   }//end update
+
+   /*
+    * Runs a query and renders the result as a JSON array of objects keyed by
+    * lower-case column name. char(n) padding is trimmed.
+    */
+   private String query (String sql, String... params) throws SQLException {
+      Connection c = this._pool.borrow();
+      boolean broken = false;
+      try {
+         PreparedStatement stmt = c.prepareStatement(sql);
+         try {
+            for (int i = 0; i < params.length; ++i)
+               stmt.setString(i + 1, params[i]);
+            ResultSet rs = stmt.executeQuery();
+            ResultSetMetaData rsmd = rs.getMetaData();
+            int numCol = rsmd.getColumnCount();
+            StringBuilder sb = new StringBuilder("[");
+            boolean first = true;
+            while (rs.next()) {
+               sb.append(first ? "{" : ",{");
+               first = false;
+               for (int i = 1; i <= numCol; ++i) {
+                  if (i > 1) sb.append(',');
+                  sb.append(Json.quote(rsmd.getColumnName(i).toLowerCase())).append(':');
+                  String v = rs.getString(i);
+                  sb.append(v == null ? "null" : Json.quote(v.trim()));
+               }
+               sb.append('}');
+            }
+            rs.close();
+            return sb.append(']').toString();
+         } finally {
+            stmt.close();
+         }
+      } catch (SQLException e) {
+         broken = isBroken(c);
+         throw e;
+      } finally {
+         this._pool.release(c, broken);
+      }
+   }//end query
+
+   /* ----------------------------- request parsing --------------------------- */
+
+   private static Map<String, String> readBody (HttpExchange ex) throws IOException, HttpError {
+      InputStream in = ex.getRequestBody();
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      byte[] chunk = new byte[4096];
+      int n;
+      while ((n = in.read(chunk)) > 0) {
+         buf.write(chunk, 0, n);
+         if (buf.size() > MAX_BODY)
+            throw new HttpError(413, "request body too large");
+      }
+      in.close();
+      try {
+         return Json.parseObject(buf.toString("UTF-8"));
+      } catch (IllegalArgumentException e) {
+         throw new HttpError(400, e.getMessage());
+      }
+   }
+
+   private static Map<String, String> parseQuery (String raw) throws UnsupportedEncodingException {
+      Map<String, String> result = new HashMap<String, String>();
+      if (raw == null)
+         return result;
+      for (String pair : raw.split("&")) {
+         int eq = pair.indexOf('=');
+         if (eq > 0)
+            result.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                       URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+      }
+      return result;
+   }
+
+   private static String required (Map<String, String> m, String key) throws HttpError {
+      String v = m.get(key);
+      if (v == null || v.length() == 0)
+         throw new HttpError(400, "missing " + key);
+      return v;
+   }
+
+   private static int intParam (Map<String, String> m, String key, int dflt) throws HttpError {
+      String v = m.get(key);
+      if (v == null)
+         return dflt;
+      try {
+         return Integer.parseInt(v);
+      } catch (NumberFormatException e) {
+         throw new HttpError(400, key + " must be a number");
+      }
+   }
+
+   /**
+    * The smallest JSON support the endpoints need: flat objects whose values
+    * are strings, numbers, booleans or null, and string quoting for output.
+    */
+   static final class Json {
+
+      static String quote (String s) {
+         StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+         for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+               case '"': sb.append("\\\""); break;
+               case '\\': sb.append("\\\\"); break;
+               case '\n': sb.append("\\n"); break;
+               case '\r': sb.append("\\r"); break;
+               case '\t': sb.append("\\t"); break;
+               default:
+                  if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                  else sb.append(c);
+            }
+         }
+         return sb.append('"').toString();
+      }
+
+      static Map<String, String> parseObject (String text) {
+         Map<String, String> result = new HashMap<String, String>();
+         int[] pos = { skip(text, 0) };
+         expect(text, pos, '{');
+         if (peek(text, pos) == '}')
+            return result;
+         while (true) {
+            String key = string(text, pos);
+            expect(text, pos, ':');
+            pos[0] = skip(text, pos[0]);
+            String value;
+            if (peek(text, pos) == '"') {
+               value = string(text, pos);
+            } else {
+               int start = pos[0];
+               while (pos[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(pos[0])) < 0)
+                  ++pos[0];
+               value = text.substring(start, pos[0]);
+               if (value.equals("null")) value = null;
+            }
+            result.put(key, value);
+            pos[0] = skip(text, pos[0]);
+            if (peek(text, pos) == ',') { ++pos[0]; continue; }
+            expect(text, pos, '}');
+            return result;
+         }
+      }
+
+      private static int skip (String t, int i) {
+         while (i < t.length() && Character.isWhitespace(t.charAt(i))) ++i;
+         return i;
+      }
+
+      private static char peek (String t, int[] pos) {
+         pos[0] = skip(t, pos[0]);
+         if (pos[0] >= t.length()) throw new IllegalArgumentException("unexpected end of JSON");
+         return t.charAt(pos[0]);
+      }
+
+      private static void expect (String t, int[] pos, char c) {
+         if (peek(t, pos) != c)
+            throw new IllegalArgumentException("expected '" + c + "' at " + pos[0]);
+         ++pos[0];
+      }
+
+      private static String string (String t, int[] pos) {
+         expect(t, pos, '"');
+         StringBuilder sb = new StringBuilder();
+         while (pos[0] < t.length()) {
+            char c = t.charAt(pos[0]++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') { sb.append(c); continue; }
+            if (pos[0] >= t.length()) break;
+            char e = t.charAt(pos[0]++);
+            switch (e) {
+               case 'n': sb.append('\n'); break;
+               case 'r': sb.append('\r'); break;
+               case 't': sb.append('\t'); break;
+               case 'b': sb.append('\b'); break;
+               case 'f': sb.append('\f'); break;
+               case 'u':
+                  if (pos[0] + 4 > t.length()) throw new IllegalArgumentException("bad escape");
+                  sb.append((char) Integer.parseInt(t.substring(pos[0], pos[0] + 4), 16));
+                  pos[0] += 4;
+                  break;
+               default: sb.append(e);
+            }
+         }
+         throw new IllegalArgumentException("unterminated string");
+      }
+   }//end Json
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> <http port> [pool size] [worker threads]
+    */
+   public static void main (String[] args) {
+      if (args.length < 4 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ProfNetworkServer.class.getName () +
+            " <dbname> <port> <user> <http port> [pool size] [worker threads]");
+         return;
+      }//end if
+
+      try {
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         int poolSize = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+         int threads = args.length > 5 ? Integer.parseInt(args[5]) : 4 * poolSize;
+         final ConnectionPool pool = new ConnectionPool(url, args[2], "", poolSize, 10000);
+         final ProfNetworkServer app = new ProfNetworkServer(pool);
+
+         // bounded workers and queue; when both are full the accepting
+         // thread runs the request itself, which slows down new accepts
+         final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+            threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(threads * 16),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+         final HttpServer server = HttpServer.create(new InetSocketAddress(Integer.parseInt(args[3])), 1024);
+         server.createContext("/", app);
+         server.setExecutor(workers);
+         server.start();
+         System.out.println("Serving " + url + " on http://localhost:" + args[3] +
+                            " with " + threads + " workers and " + poolSize + " connections");
+
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run () {
+               server.stop(1);
+               workers.shutdown();
+               pool.cleanup();
+            }
+         });
+         while (true) {
+            Thread.sleep(60000);
+            app.expireSessions();
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+}//end ProfNetworkServer
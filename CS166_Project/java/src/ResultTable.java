@@ -0,0 +1,366 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented query result. Integer and date columns are kept in int
+ * arrays, bigint and timestamp columns in long arrays, and every other
+ * column is dictionary encoded: an int code per row plus one String per
+ * distinct value. Booleans, which this driver returns as "t" and "f", and
+ * timestamptz, whose text carries an offset, are dictionary encoded too.
+ * A result of R rows and C columns therefore costs C primitive arrays
+ * instead of R ArrayLists and R*C Strings.
+ *
+ * Cells are read with typed getters by row and column, both counted from 0.
+ * getString works on every column and gives the same text the driver would.
+ */
+public class ResultTable {
+
+   public static final int INT = 0, LONG = 1, DATE = 2, TIMESTAMP = 3, STRING = 4;
+
+   private final String[] _names;
+   private final int[] _types;
+   private final int[][] _ints;        // INT, DATE and STRING codes
+   private final long[][] _longs;      // LONG, and TIMESTAMP in epoch microseconds
+   private final List<List<String>> _dictionaries;
+   private final BitSet[] _nulls;      // null only for columns without nulls
+   private int _rows;
+
+   private ResultTable (String[] names, int[] types) {
+      int cols = names.length;
+      this._names = names;
+      this._types = types;
+      this._ints = new int[cols][];
+      this._longs = new long[cols][];
+      this._dictionaries = new ArrayList<List<String>>(cols);
+      this._nulls = new BitSet[cols];
+      for (int c = 0; c < cols; ++c) {
+         if (types[c] == LONG || types[c] == TIMESTAMP) this._longs[c] = new long[16];
+         else this._ints[c] = new int[16];
+         this._dictionaries.add(types[c] == STRING ? new ArrayList<String>() : null);
+      }
+   }
+
+   // booleans stay text, as the driver's getInt cannot read its "t" and "f"
+   private static int storageType (int sqlType, String typeName) {
+      switch (sqlType) {
+         case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+            return INT;
+         case Types.BIGINT:
+            return LONG;
+         case Types.DATE:
+            return DATE;
+         case Types.TIMESTAMP:
+            // timestamptz text carries an offset the epoch value cannot give back
+            return "timestamptz".equals(typeName) ? STRING : TIMESTAMP;
+         default:
+            return STRING;
+      }
+   }
+
+   /**
+    * Drains a result set into a new table. The result set is not closed.
+    *
+    * @param rs an open result set positioned before the first row
+    * @return the table
+    * @throws java.sql.SQLException when reading the result fails
+    */
+   public static ResultTable from (ResultSet rs) throws SQLException {
+      ResultSetMetaData rsmd = rs.getMetaData();
+      int cols = rsmd.getColumnCount();
+      String[] names = new String[cols];
+      int[] types = new int[cols];
+      for (int c = 0; c < cols; ++c) {
+         names[c] = rsmd.getColumnName(c + 1);
+         types[c] = storageType(rsmd.getColumnType(c + 1), rsmd.getColumnTypeName(c + 1));
+      }
+      ResultTable t = new ResultTable(names, types);
+
+      // one lookup table per string column while loading
+      List<Map<String, Integer>> codes = new ArrayList<Map<String, Integer>>(cols);
+      for (int c = 0; c < cols; ++c)
+         codes.add(types[c] == STRING ? new HashMap<String, Integer>() : null);
+
+      int row = 0;
+      while (rs.next()) {
+         t.ensure(row + 1);
+         for (int c = 0; c < cols; ++c) {
+            boolean isNull = false;
+            switch (types[c]) {
+               case INT:
+                  t._ints[c][row] = rs.getInt(c + 1);
+                  isNull = rs.wasNull();
+                  break;
+               case LONG:
+                  t._longs[c][row] = rs.getLong(c + 1);
+                  isNull = rs.wasNull();
+                  break;
+               case DATE: {
+                  String s = rs.getString(c + 1);
+                  isNull = s == null;
+                  t._ints[c][row] = NetworkSnapshot.toEpochDay(s);
+                  break;
+               }
+               case TIMESTAMP: {
+                  Timestamp ts = rs.getTimestamp(c + 1);
+                  isNull = ts == null;
+                  // whole seconds from getTime, the fraction from getNanos
+                  t._longs[c][row] = isNull ? 0 : floorDiv(ts.getTime(), 1000) * 1000000 + ts.getNanos() / 1000;
+                  break;
+               }
+               default: {
+                  String s = rs.getString(c + 1);
+                  if (s == null) {
+                     isNull = true;
+                     t._ints[c][row] = -1;
+                     break;
+                  }
+                  Map<String, Integer> dict = codes.get(c);
+                  Integer code = dict.get(s);
+                  if (code == null) {
+                     code = dict.size();
+                     dict.put(s, code);
+                     t._dictionaries.get(c).add(s);
+                  }
+                  t._ints[c][row] = code;
+               }
+            }
+            if (isNull) {
+               if (t._nulls[c] == null)
+                  t._nulls[c] = new BitSet();
+               t._nulls[c].set(row);
+            }
+         }
+         ++row;
+      }
+      t._rows = row;
+      t.trimToSize();
+      return t;
+   }//end from
+
+   private void ensure (int rows) {
+      for (int c = 0; c < this._names.length; ++c) {
+         if (this._ints[c] != null && this._ints[c].length < rows)
+            this._ints[c] = Arrays.copyOf(this._ints[c], this._ints[c].length * 2);
+         if (this._longs[c] != null && this._longs[c].length < rows)
+            this._longs[c] = Arrays.copyOf(this._longs[c], this._longs[c].length * 2);
+      }
+   }
+
+   private void trimToSize () {
+      for (int c = 0; c < this._names.length; ++c) {
+         if (this._ints[c] != null)
+            this._ints[c] = Arrays.copyOf(this._ints[c], this._rows);
+         if (this._longs[c] != null)
+            this._longs[c] = Arrays.copyOf(this._longs[c], this._rows);
+      }
+   }
+
+   /* -------------------------------- accessors ------------------------------ */
+
+   public int size () { return this._rows; }
+   public boolean isEmpty () { return this._rows == 0; }
+   public int columnCount () { return this._names.length; }
+   public String columnName (int col) { return this._names[col]; }
+   public int columnType (int col) { return this._types[col]; }
+
+   public boolean isNull (int row, int col) {
+      check(row);
+      return this._nulls[col] != null && this._nulls[col].get(row);
+   }
+
+   /**
+    * Reads an INT column, or the day number of a DATE column.
+    * String columns are parsed, which is only meant for odd numeric types.
+    */
+   public int getInt (int row, int col) {
+      check(row);
+      switch (this._types[col]) {
+         case INT: case DATE: return this._ints[col][row];
+         case LONG: return (int) this._longs[col][row];
+         case TIMESTAMP: return (int) floorDiv(this._longs[col][row], 1000);
+         default:
+            String s = getString(row, col);
+            return s == null ? 0 : Integer.parseInt(s.trim());
+      }
+   }
+
+   /**
+    * Reads a LONG column, the epoch milliseconds of a TIMESTAMP column, or
+    * any INT column widened.
+    */
+   public long getLong (int row, int col) {
+      check(row);
+      switch (this._types[col]) {
+         case LONG: return this._longs[col][row];
+         case TIMESTAMP: return floorDiv(this._longs[col][row], 1000);
+         case INT: case DATE: return this._ints[col][row];
+         default:
+            String s = getString(row, col);
+            return s == null ? 0 : Long.parseLong(s.trim());
+      }
+   }
+
+   /**
+    * Reads any cell as text, or null.
+    */
+   public String getString (int row, int col) {
+      if (isNull(row, col))
+         return null;
+      switch (this._types[col]) {
+         case INT: return String.valueOf(this._ints[col][row]);
+         case LONG: return String.valueOf(this._longs[col][row]);
+         case DATE: return NetworkSnapshot.fromEpochDay(this._ints[col][row]);
+         case TIMESTAMP: return formatTimestamp(this._longs[col][row]);
+         default: return this._dictionaries.get(col).get(this._ints[col][row]);
+      }
+   }
+
+   /**
+    * Returns the dictionary code of a STRING cell; equal codes mean equal
+    * strings within one column, -1 means null.
+    */
+   public int getCode (int row, int col) {
+      check(row);
+      if (this._types[col] != STRING)
+         throw new IllegalArgumentException(this._names[col] + " is not a string column");
+      return this._ints[col][row];
+   }
+
+   /**
+    * Number of distinct non-null values of a STRING column.
+    */
+   public int distinctValues (int col) {
+      List<String> dict = this._dictionaries.get(col);
+      return dict == null ? -1 : dict.size();
+   }
+
+   private static long floorDiv (long a, long b) {
+      long q = a / b;
+      return (a % b != 0 && (a < 0) != (b < 0)) ? q - 1 : q;
+   }
+
+   /*
+    * Formats epoch microseconds the way Postgres prints a timestamp: no
+    * fraction for whole seconds, otherwise without trailing zeros.
+    */
+   static String formatTimestamp (long micros) {
+      long seconds = floorDiv(micros, 1000000);
+      Timestamp ts = new Timestamp(seconds * 1000);
+      ts.setNanos((int) (micros - seconds * 1000000) * 1000);
+      String s = ts.toString();
+      return s.endsWith(".0") ? s.substring(0, s.length() - 2) : s;
+   }
+
+   private void check (int row) {
+      if (row < 0 || row >= this._rows)
+         throw new IndexOutOfBoundsException("row " + row + " of " + this._rows);
+   }
+
+   /**
+    * Compares heap allocation of executeQueryAndReturnResult with
+    * executeQueryAndReturnTable for the same query.
+    *
+    * @param args <dbname> <port> <user> <query> [repetitions]
+    */
+   public static void main (String[] args) {
+      if (args.length < 4 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ResultTable.class.getName () +
+            " <dbname> <port> <user> <query> [repetitions]");
+         return;
+      }//end if
+
+      int reps = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+      ProfNetwork esql = null;
+      try {
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+         if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("This JVM cannot report allocated bytes");
+            return;
+         }
+         com.sun.management.ThreadMXBean amx = (com.sun.management.ThreadMXBean) mx;
+         long id = Thread.currentThread().getId();
+         String query = args[3];
+
+         // warm up both paths before measuring
+         esql.executeQueryAndReturnResult(query);
+         esql.executeQueryAndReturnTable(query);
+
+         long listBytes = 0, tableBytes = 0, listNanos = 0, tableNanos = 0;
+         int rows = 0;
+         for (int i = 0; i < reps; ++i) {
+            long a0 = amx.getThreadAllocatedBytes(id), t0 = System.nanoTime();
+            List<List<String>> list = esql.executeQueryAndReturnResult(query);
+            long a1 = amx.getThreadAllocatedBytes(id), t1 = System.nanoTime();
+            ResultTable table = esql.executeQueryAndReturnTable(query);
+            long a2 = amx.getThreadAllocatedBytes(id), t2 = System.nanoTime();
+            listBytes += a1 - a0;
+            tableBytes += a2 - a1;
+            listNanos += t1 - t0;
+            tableNanos += t2 - t1;
+            rows = table.size();
+            if (list.size() != rows)
+               System.err.println("row counts differ: " + list.size() + " vs " + rows);
+         }
+
+         // retained size: what stays reachable once the driver is done
+         Runtime rt = Runtime.getRuntime();
+         long before = usedAfterGc(rt);
+         List<List<String>> keepList = esql.executeQueryAndReturnResult(query);
+         long afterList = usedAfterGc(rt);
+         ResultTable keepTable = esql.executeQueryAndReturnTable(query);
+         long afterTable = usedAfterGc(rt);
+
+         System.out.printf("%d rows, %d repetitions%n", rows, reps);
+         System.out.println("Structure\t\tAllocated/run\tRetained\tms/run");
+         System.out.printf("List<List<String>>\t%d\t\t%d\t\t%.2f%n", listBytes / reps,
+                           afterList - before, listNanos / 1e6 / reps);
+         System.out.printf("ResultTable\t\t%d\t\t%d\t\t%.2f%n", tableBytes / reps,
+                           afterTable - afterList, tableNanos / 1e6 / reps);
+         // keep both alive until after the last measurement
+         if (keepList.size() + keepTable.size() < 0)
+            System.out.println();
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+   private static long usedAfterGc (Runtime rt) {
+      for (int i = 0; i < 3; ++i)
+         System.gc();
+      return rt.totalMemory() - rt.freeMemory();
+   }
+
+}//end ResultTable
@@ -0,0 +1,252 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Data a logged in user is likely to look at first, fetched in the
+ * background right after LogIn while the menu is drawn: the friend list,
+ * the pending requests and the first page of the inbox. The profile is
+ * printed right after LogIn, before the worker could have connected, so the
+ * menu's connection reads it.
+ *
+ * The fetches run on one daemon thread with its own physical connection so
+ * they never share the menu's connection. Writes made in this session patch
+ * the friend and request lists in place and refetch the inbox, so the
+ * snapshot stays what the database would return; writes by other users
+ * reach it through NotificationListener. Any getter returns null when its
+ * fetch failed, and the caller then queries as before.
+ */
+public class SessionSnapshot {
+
+   // the inbox prefetch reads one row past this to know if it saw everything
+   public static final int INBOX_PAGE = 50;
+   // getters give up on a fetch that takes longer than this
+   static final long WAIT_MILLIS = 5000;
+
+   private final ProfNetwork _esql;
+   private final String _userId;
+   private final ExecutorService _worker;
+   private Connection _connection;
+
+   private volatile Future<List<String>> _friends;
+   private volatile Future<List<String>> _pending;
+   private volatile Future<ResultTable> _inbox;
+
+   /**
+    * Starts prefetching for a user who just logged in. Returns immediately.
+    *
+    * @param esql the menu's ProfNetwork, used to open a second connection
+    * @param userId the authorised user
+    */
+   public SessionSnapshot (ProfNetwork esql, String userId) {
+      this._esql = esql;
+      this._userId = userId;
+      this._worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "session-prefetch");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      this._friends = submitFriends();
+      this._pending = submitPending();
+      this._inbox = submitInbox();
+   }//end SessionSnapshot
+
+   public String userId () { return this._userId; }
+
+   /* --------------------------------- fetches ------------------------------- */
+
+   private Connection connection () throws SQLException {
+      if (this._connection == null)
+         this._connection = this._esql.openConnection();
+      return this._connection;
+   }
+
+   private ResultTable table (String sql, String... params) throws SQLException {
+      PreparedStatement stmt = connection().prepareStatement(sql);
+      try {
+         for (int i = 0; i < params.length; ++i)
+            stmt.setString(i + 1, params[i]);
+         ResultSet rs = stmt.executeQuery();
+         return ResultTable.from(rs);
+      } finally {
+         stmt.close();
+      }
+   }
+
+   private List<String> column (String sql, String... params) throws SQLException {
+      ResultTable t = table(sql, params);
+      List<String> result = new ArrayList<String>(t.size());
+      for (int r = 0; r < t.size(); ++r)
+         result.add(t.isNull(r, 0) ? null : t.getString(r, 0).trim());
+      return result;
+   }
+
+   private Future<List<String>> submitFriends () {
+      return this._worker.submit(new Callable<List<String>>() {
+         public List<String> call () throws SQLException {
+            String me = SessionSnapshot.this._userId;
+            return column("SELECT C1.connectionId FROM CONNECTION_USR C1 WHERE C1.userId = ? AND C1.status = 'Accept' " +
+                          "UNION SELECT C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId = ? AND C2.status = 'Accept'",
+                          me, me);
+         }
+      });
+   }
+
+   private Future<List<String>> submitPending () {
+      return this._worker.submit(new Callable<List<String>>() {
+         public List<String> call () throws SQLException {
+            return column("SELECT C.userId FROM CONNECTION_USR C WHERE C.connectionId = ? AND C.status = 'Request'",
+                          SessionSnapshot.this._userId);
+         }
+      });
+   }
+
+   private Future<ResultTable> submitInbox () {
+      return this._worker.submit(new Callable<ResultTable>() {
+         public ResultTable call () throws SQLException {
+            return table("SELECT M.msgId, M.contents FROM MESSAGE M WHERE M.receiverId = ? " +
+                         "AND (M.deleteStatus = 0 OR M.deleteStatus = 1) ORDER BY M.msgId LIMIT " + (INBOX_PAGE + 1),
+                         SessionSnapshot.this._userId);
+         }
+      });
+   }
+
+   private static <T> T await (Future<T> f) {
+      try {
+         return f.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return null;
+      } catch (Exception e) {
+         // failed or too slow, the caller goes to the database itself
+         return null;
+      }
+   }
+
+   /* --------------------------------- getters ------------------------------- */
+
+   /**
+    * The userIds of accepted connections in either direction, or null.
+    */
+   public List<String> friends () {
+      List<String> f = await(this._friends);
+      return f == null ? null : copy(f);
+   }
+
+   /**
+    * The userIds that sent this user a pending request, or null.
+    */
+   public List<String> pending () {
+      List<String> p = await(this._pending);
+      return p == null ? null : copy(p);
+   }
+
+   /**
+    * The received messages ViewMessages lists, oldest first, or null when the
+    * fetch failed or the inbox is longer than INBOX_PAGE.
+    */
+   public ResultTable inbox () {
+      ResultTable t = await(this._inbox);
+      return t == null || t.size() > INBOX_PAGE ? null : t;
+   }
+
+   private static List<String> copy (List<String> list) {
+      synchronized (list) {
+         return new ArrayList<String>(list);
+      }
+   }
+
+   /* ------------------------------ own writes ------------------------------- */
+
+   /**
+    * Records that this user accepted a request from another user.
+    */
+   public void accepted (String from) {
+      from = from.trim();
+      List<String> p = await(this._pending);
+      List<String> f = await(this._friends);
+      if (p == null || f == null) {
+         this._pending = submitPending();
+         this._friends = submitFriends();
+         return;
+      }
+      synchronized (p) { p.remove(from); }
+      synchronized (f) { if (!f.contains(from)) f.add(from); }
+   }
+
+   /**
+    * Records that this user rejected a request from another user.
+    */
+   public void rejected (String from) {
+      from = from.trim();
+      List<String> p = await(this._pending);
+      if (p == null) {
+         this._pending = submitPending();
+         return;
+      }
+      synchronized (p) { p.remove(from); }
+   }
+
+   /**
+    * Refetches the inbox in the background after messages were deleted.
+    */
+   public void inboxChanged () {
+      this._inbox = submitInbox();
+   }
+
+   /**
+    * Refetches the pending requests after another user sent one.
+    */
+   public void pendingChanged () {
+      this._pending = submitPending();
+   }
+
+   /**
+    * Refetches the friend list after another user answered a request.
+    */
+   public void friendsChanged () {
+      this._friends = submitFriends();
+   }
+
+   /**
+    * Stops the worker and closes its connection.
+    */
+   public void close () {
+      this._worker.submit(new Runnable() {
+         public void run () {
+            try {
+               if (SessionSnapshot.this._connection != null)
+                  SessionSnapshot.this._connection.close();
+            } catch (SQLException e) {
+               // ignored.
+            }
+         }
+      });
+      this._worker.shutdown();
+   }//end close
+
+}//end SessionSnapshot
@@ -0,0 +1,308 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dumps USR, CONNECTION_USR, WORK_EXPR and EDUCATIONAL_DETAILS into the
+ * binary columnar snapshot read by NetworkSnapshot. Every string is stored
+ * once in a dictionary and the tables become int columns of dictionary ids,
+ * node numbers and day numbers.
+ */
+public class SnapshotExporter {
+
+   // reference to physical database connection.
+   private Connection _connection = null;
+
+   // string dictionary, ids in first-seen order
+   private final Map<String, Integer> _stringIds = new HashMap<String, Integer>();
+   private final List<String> _strings = new ArrayList<String>();
+
+   /**
+    * Creates a new exporter connected to the given database.
+    *
+    * @param dbname the name of the database
+    * @param dbport the port the server listens on
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public SnapshotExporter (String dbname, String dbport, String user, String passwd) throws SQLException {
+      String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+      this._connection = DriverManager.getConnection(url, user, passwd);
+   }//end SnapshotExporter
+
+   /**
+    * Method to close the physical connection if it is open.
+    */
+   public void cleanup(){
+      try{
+         if (this._connection != null){
+            this._connection.close ();
+         }//end if
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end cleanup
+
+   private int intern (String s) {
+      if (s == null)
+         return NetworkSnapshot.NO_STRING;
+      // char(n) columns come back blank padded
+      s = s.trim();
+      Integer id = this._stringIds.get(s);
+      if (id == null) {
+         id = this._strings.size();
+         this._stringIds.put(s, id);
+         this._strings.add(s);
+      }
+      return id;
+   }
+
+   /**
+    * Reads the four tables and writes the snapshot files into a directory.
+    *
+    * @param dir the output directory, created if needed
+    * @throws java.sql.SQLException when a query fails
+    * @throws java.io.IOException when a file cannot be written
+    */
+   public void export (File dir) throws SQLException, IOException {
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("cannot create " + dir);
+      Statement stmt = this._connection.createStatement();
+
+      // users, keyed by their trimmed userId
+      Map<String, String[]> users = new HashMap<String, String[]>();
+      ResultSet rs = stmt.executeQuery("SELECT userId, email, name, dateOfBirth FROM USR");
+      while (rs.next())
+         users.put(rs.getString(1).trim(),
+                   new String[]{ rs.getString(2), rs.getString(3), rs.getString(4) });
+      rs.close();
+
+      // connections, which may point to ids that are not in USR
+      List<String> from = new ArrayList<String>();
+      List<String> to = new ArrayList<String>();
+      List<String> status = new ArrayList<String>();
+      rs = stmt.executeQuery("SELECT userId, connectionId, status FROM CONNECTION_USR");
+      while (rs.next()) {
+         from.add(rs.getString(1).trim());
+         to.add(rs.getString(2).trim());
+         status.add(rs.getString(3));
+      }
+      rs.close();
+
+      // node numbers follow userId order so readers can binary search
+      Set<String> ids = new HashSet<String>(users.keySet());
+      ids.addAll(from);
+      ids.addAll(to);
+      String[] nodes = ids.toArray(new String[ids.size()]);
+      Arrays.sort(nodes);
+      Map<String, Integer> nodeOf = new HashMap<String, Integer>(nodes.length * 2);
+      for (int i = 0; i < nodes.length; ++i)
+         nodeOf.put(nodes[i], i);
+
+      int n = nodes.length;
+      int[][] usr = new int[NetworkSnapshot.USR_COLUMNS][n];
+      for (int i = 0; i < n; ++i) {
+         String[] row = users.get(nodes[i]);
+         usr[NetworkSnapshot.USR_ID][i] = intern(nodes[i]);
+         usr[NetworkSnapshot.USR_EMAIL][i] = row == null ? NetworkSnapshot.NO_STRING : intern(row[0]);
+         usr[NetworkSnapshot.USR_NAME][i] = row == null ? NetworkSnapshot.NO_STRING : intern(row[1]);
+         usr[NetworkSnapshot.USR_DOB][i] = row == null ? NetworkSnapshot.NO_DATE : NetworkSnapshot.toEpochDay(row[2]);
+      }
+      users = null;
+
+      int[][] work = readHistory(stmt, nodeOf,
+         "SELECT userId, company, role, location, startDate, endDate FROM WORK_EXPR");
+      int[][] edu = readHistory(stmt, nodeOf,
+         "SELECT userId, instituitionName, major, degree, startdate, enddate FROM EDUCATIONAL_DETAILS");
+      stmt.close();
+
+      writeTable(new File(dir, "usr.col"), usr, n);
+      writeTable(new File(dir, "work.col"), work, work[0].length);
+      writeTable(new File(dir, "edu.col"), edu, edu[0].length);
+      writeEdges(new File(dir, "edges.csr"), n, nodeOf, from, to, status);
+      writeStrings(new File(dir, "strings.bin"));
+   }//end export
+
+   /*
+    * Reads WORK_EXPR or EDUCATIONAL_DETAILS, whose rows share the shape
+    * (userId, three strings, start date, end date), and orders them by node.
+    */
+   private int[][] readHistory (Statement stmt, Map<String, Integer> nodeOf, String query) throws SQLException {
+      List<int[]> rows = new ArrayList<int[]>();
+      ResultSet rs = stmt.executeQuery(query);
+      while (rs.next()) {
+         Integer node = nodeOf.get(rs.getString(1).trim());
+         if (node == null)
+            continue;
+         rows.add(new int[]{ node, intern(rs.getString(2)), intern(rs.getString(3)),
+                             intern(rs.getString(4)),
+                             NetworkSnapshot.toEpochDay(rs.getString(5)),
+                             NetworkSnapshot.toEpochDay(rs.getString(6)) });
+      }
+      rs.close();
+
+      // counting sort by node keeps each user's rows together
+      int n = nodeOf.size();
+      int[] start = new int[n + 1];
+      for (int[] row : rows)
+         start[row[0] + 1]++;
+      for (int i = 0; i < n; ++i)
+         start[i + 1] += start[i];
+      int[][] cols = new int[6][rows.size()];
+      for (int[] row : rows) {
+         int at = start[row[0]]++;
+         for (int c = 0; c < 6; ++c)
+            cols[c][at] = row[c];
+      }
+      return cols;
+   }//end readHistory
+
+   private static DataOutputStream open (File f) throws IOException {
+      return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+   }
+
+   private static void writeTable (File f, int[][] cols, int rows) throws IOException {
+      DataOutputStream out = open(f);
+      try {
+         out.writeInt(NetworkSnapshot.TABLE_MAGIC);
+         out.writeInt(NetworkSnapshot.VERSION);
+         out.writeInt(rows);
+         out.writeInt(cols.length);
+         for (int[] col : cols)
+            for (int r = 0; r < rows; ++r)
+               out.writeInt(col[r]);
+      } finally {
+         out.close();
+      }
+   }//end writeTable
+
+   /*
+    * Every CONNECTION_USR row becomes two CSR entries: an outgoing one under
+    * the sender and an incoming one (status | INCOMING) under the receiver.
+    */
+   private static void writeEdges (File f, int n, Map<String, Integer> nodeOf,
+                                   List<String> from, List<String> to, List<String> status) throws IOException {
+      int m = from.size();
+      int[] src = new int[m], dst = new int[m];
+      int[] offsets = new int[n + 1];
+      for (int i = 0; i < m; ++i) {
+         src[i] = nodeOf.get(from.get(i));
+         dst[i] = nodeOf.get(to.get(i));
+         offsets[src[i] + 1]++;
+         offsets[dst[i] + 1]++;
+      }
+      for (int i = 0; i < n; ++i)
+         offsets[i + 1] += offsets[i];
+      int[] fill = Arrays.copyOf(offsets, n);
+      int[] targets = new int[2 * m];
+      byte[] codes = new byte[2 * m];
+      for (int i = 0; i < m; ++i) {
+         int code = NetworkSnapshot.statusCode(status.get(i));
+         int e = fill[src[i]]++;
+         targets[e] = dst[i];
+         codes[e] = (byte) code;
+         e = fill[dst[i]]++;
+         targets[e] = src[i];
+         codes[e] = (byte) (code | NetworkSnapshot.INCOMING);
+      }
+
+      DataOutputStream out = open(f);
+      try {
+         out.writeInt(NetworkSnapshot.EDGES_MAGIC);
+         out.writeInt(NetworkSnapshot.VERSION);
+         out.writeInt(n);
+         out.writeInt(2 * m);
+         for (int o : offsets)
+            out.writeInt(o);
+         for (int t : targets)
+            out.writeInt(t);
+         out.write(codes);
+      } finally {
+         out.close();
+      }
+   }//end writeEdges
+
+   private void writeStrings (File f) throws IOException {
+      int count = this._strings.size();
+      byte[][] encoded = new byte[count][];
+      for (int i = 0; i < count; ++i)
+         encoded[i] = this._strings.get(i).getBytes(NetworkSnapshot.UTF8);
+
+      DataOutputStream out = open(f);
+      try {
+         out.writeInt(NetworkSnapshot.STRINGS_MAGIC);
+         out.writeInt(NetworkSnapshot.VERSION);
+         out.writeInt(count);
+         int offset = 0;
+         out.writeInt(0);
+         for (byte[] b : encoded) {
+            offset += b.length;
+            out.writeInt(offset);
+         }
+         for (byte[] b : encoded)
+            out.write(b);
+      } finally {
+         out.close();
+      }
+   }//end writeStrings
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments <dbname> <port> <user> <output dir>
+    */
+   public static void main (String[] args) {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            SnapshotExporter.class.getName () +
+            " <dbname> <port> <user> <output dir>");
+         return;
+      }//end if
+
+      SnapshotExporter exporter = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         exporter = new SnapshotExporter (args[0], args[1], args[2], "");
+         long start = System.nanoTime();
+         exporter.export(new File(args[3]));
+         System.out.printf("Snapshot written to %s in %.1f s%n", args[3], (System.nanoTime() - start) / 1e9);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (exporter != null)
+            exporter.cleanup();
+      }//end try
+   }//end main
+
+}//end SnapshotExporter
@@ -0,0 +1,447 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Former colleagues and classmates: the people whose time at one of a
+ * user's companies or institutions overlapped the user's own, for profile
+ * views and connection suggestions.
+ *
+ * WORK_EXPR rows are grouped by company and EDUCATIONAL_DETAILS rows by
+ * institution, matched after trimming as the char(50) columns compare in
+ * SQL. Each group keeps its tenures sorted by start day with an implicit
+ * interval tree on top: the middle row of every range of the sorted array
+ * holds the latest end day in that range. A search skips a range that ends
+ * before the tenure asked about and stops at the first start after it, so
+ * it costs O(log n + matches) in the group.
+ *
+ * A tenure without a start day, or ending before it starts, as many rows
+ * of the CSV files do, is not indexed and finds nobody; one without an end
+ * day is still running. The GiST indexes in create_index.sql use the same
+ * rule. A write rereads the user's rows and replaces them, and each group
+ * it changed is sorted again on its next search.
+ */
+public class TenureIndex {
+
+   public static final int WORK = 0, EDUCATION = 1;
+   public static final String[] KIND_NAMES = { "company", "institution" };
+
+   // end day of a tenure still running
+   static final int OPEN = Integer.MAX_VALUE;
+
+   /**
+    * The tenures at one company or institution.
+    */
+   static final class Group {
+      final String name;
+      int[] start = new int[4], end = new int[4], user = new int[4];
+      int size;
+      int[] maxEnd;      // null until the next search after a change
+
+      Group (String name) { this.name = name; }
+
+      void add (int u, int s, int e) {
+         if (this.size == this.start.length) {
+            this.start = Arrays.copyOf(this.start, this.size * 2);
+            this.end = Arrays.copyOf(this.end, this.size * 2);
+            this.user = Arrays.copyOf(this.user, this.size * 2);
+         }
+         this.start[this.size] = s;
+         this.end[this.size] = e;
+         this.user[this.size] = u;
+         ++this.size;
+         this.maxEnd = null;
+      }
+
+      void removeUser (int u) {
+         int n = 0;
+         for (int i = 0; i < this.size; ++i) {
+            if (this.user[i] == u) continue;
+            this.start[n] = this.start[i];
+            this.end[n] = this.end[i];
+            this.user[n] = this.user[i];
+            ++n;
+         }
+         this.size = n;
+         this.maxEnd = null;
+      }
+
+      void build () {
+         // start day in the high half, row in the low half
+         long[] order = new long[this.size];
+         for (int i = 0; i < this.size; ++i)
+            order[i] = (long) this.start[i] << 32 | i;
+         Arrays.sort(order);
+         int[] s = new int[this.size], e = new int[this.size], u = new int[this.size];
+         for (int i = 0; i < this.size; ++i) {
+            int row = (int) order[i];
+            s[i] = this.start[row];
+            e[i] = this.end[row];
+            u[i] = this.user[row];
+         }
+         this.start = s;
+         this.end = e;
+         this.user = u;
+         this.maxEnd = new int[this.size];
+         fill(0, this.size);
+      }
+
+      private int fill (int lo, int hi) {
+         if (lo >= hi)
+            return Integer.MIN_VALUE;
+         int mid = (lo + hi) >>> 1;
+         int max = Math.max(this.end[mid], Math.max(fill(lo, mid), fill(mid + 1, hi)));
+         this.maxEnd[mid] = max;
+         return max;
+      }
+   }//end Group
+
+   /**
+    * One table: its groups and each user's own tenures as
+    * (group, start, end) triples.
+    */
+   static final class Side {
+      final Map<String, Integer> groupIds = new HashMap<String, Integer>();
+      final List<Group> groups = new ArrayList<Group>();
+      final List<DirectoryIndex.IntList> userRows = new ArrayList<DirectoryIndex.IntList>();
+      int rows;
+   }
+
+   /**
+    * A colleague and the longest time spent together.
+    */
+   public static final class Match {
+      public final String userId;
+      public final int kind;
+      public final String place;
+      public final int from, to;     // day numbers, to is OPEN while running
+
+      Match (String userId, int kind, String place, int from, int to) {
+         this.userId = userId;
+         this.kind = kind;
+         this.place = place;
+         this.from = from;
+         this.to = to;
+      }
+   }
+
+   /**
+    * The first colleagues of one search, longest overlap first.
+    */
+   public static final class Result {
+      public final int total;
+      public final List<Match> matches;
+
+      Result (int total, List<Match> matches) {
+         this.total = total;
+         this.matches = matches;
+      }
+   }
+
+   private final Map<String, Integer> _userIds = new HashMap<String, Integer>();
+   private final List<String> _users = new ArrayList<String>();
+   private final Side[] _sides = { new Side(), new Side() };
+
+   // scratch for keeping one match per colleague
+   private int[] _seen = new int[16];
+   private int[] _slot = new int[16];
+   private int _tick;
+   private final DirectoryIndex.IntList _hitUser = new DirectoryIndex.IntList();
+   private final DirectoryIndex.IntList _hitKind = new DirectoryIndex.IntList();
+   private final DirectoryIndex.IntList _hitGroup = new DirectoryIndex.IntList();
+   private final DirectoryIndex.IntList _hitFrom = new DirectoryIndex.IntList();
+   private final DirectoryIndex.IntList _hitTo = new DirectoryIndex.IntList();
+   private final DirectoryIndex.IntList _hitDays = new DirectoryIndex.IntList();
+
+   /**
+    * Reads WORK_EXPR and EDUCATIONAL_DETAILS through the menu's connection.
+    */
+   public static TenureIndex load (ProfNetwork esql) throws SQLException {
+      TenureIndex t = new TenureIndex();
+      t.addRows(WORK, esql.executeQueryAndReturnTable(
+         "SELECT W.userId, W.company, W.startDate, W.endDate FROM WORK_EXPR W"));
+      t.addRows(EDUCATION, esql.executeQueryAndReturnTable(
+         "SELECT E.userId, E.instituitionName, E.startdate, E.enddate FROM EDUCATIONAL_DETAILS E"));
+      return t;
+   }//end load
+
+   /**
+    * Builds the index from a snapshot written by SnapshotExporter.
+    */
+   public static TenureIndex load (NetworkSnapshot snap) {
+      TenureIndex t = new TenureIndex();
+      for (int r = 0; r < snap.workCount(); ++r) {
+         int place = snap.work(r, NetworkSnapshot.WORK_COMPANY);
+         if (place != NetworkSnapshot.NO_STRING)
+            t.addRow(WORK, t.userId(snap.userId(snap.work(r, NetworkSnapshot.WORK_USER))), snap.string(place),
+                     snap.work(r, NetworkSnapshot.WORK_START), snap.work(r, NetworkSnapshot.WORK_END));
+      }
+      for (int r = 0; r < snap.educationCount(); ++r) {
+         int place = snap.education(r, NetworkSnapshot.EDU_INSTITUTION);
+         if (place != NetworkSnapshot.NO_STRING)
+            t.addRow(EDUCATION, t.userId(snap.userId(snap.education(r, NetworkSnapshot.EDU_USER))), snap.string(place),
+                     snap.education(r, NetworkSnapshot.EDU_START), snap.education(r, NetworkSnapshot.EDU_END));
+      }
+      return t;
+   }//end load
+
+   // rows laid out as userId, company or institution, start date, end date
+   private void addRows (int kind, ResultTable rows) {
+      for (int r = 0; r < rows.size(); ++r) {
+         String place = rows.getString(r, 1);
+         if (place == null)
+            continue;
+         addRow(kind, userId(rows.getString(r, 0)), place,
+                rows.isNull(r, 2) ? NetworkSnapshot.NO_DATE : rows.getInt(r, 2),
+                rows.isNull(r, 3) ? NetworkSnapshot.NO_DATE : rows.getInt(r, 3));
+      }
+   }
+
+   private int userId (String userId) {
+      String key = userId.trim();
+      Integer id = this._userIds.get(key);
+      if (id == null) {
+         id = this._users.size();
+         this._userIds.put(key, id);
+         this._users.add(key);
+      }
+      return id;
+   }
+
+   /**
+    * Whether a tenure can be indexed: it has a start day and does not end
+    * before it, as in the WHERE clause of the GiST indexes.
+    */
+   static boolean valid (int start, int end) {
+      return start != NetworkSnapshot.NO_DATE && (end == NetworkSnapshot.NO_DATE || start <= end);
+   }
+
+   private void addRow (int kind, int user, String place, int start, int end) {
+      if (!valid(start, end))
+         return;
+      if (end == NetworkSnapshot.NO_DATE)
+         end = OPEN;
+      Side side = this._sides[kind];
+      String key = place.trim();
+      Integer g = side.groupIds.get(key);
+      if (g == null) {
+         g = side.groups.size();
+         side.groupIds.put(key, g);
+         side.groups.add(new Group(key));
+      }
+      side.groups.get(g).add(user, start, end);
+      while (side.userRows.size() <= user)
+         side.userRows.add(null);
+      if (side.userRows.get(user) == null)
+         side.userRows.set(user, new DirectoryIndex.IntList());
+      DirectoryIndex.IntList own = side.userRows.get(user);
+      own.add(g);
+      own.add(start);
+      own.add(end);
+      ++side.rows;
+   }
+
+   private void removeRows (int kind, int user) {
+      Side side = this._sides[kind];
+      DirectoryIndex.IntList own = user < side.userRows.size() ? side.userRows.get(user) : null;
+      if (own == null)
+         return;
+      for (int i = 0; i < own.size; i += 3) {
+         boolean done = false;
+         for (int j = 0; j < i && !done; j += 3)
+            done = own.data[j] == own.data[i];
+         if (!done)
+            side.groups.get(own.data[i]).removeUser(user);
+         --side.rows;
+      }
+      side.userRows.set(user, null);
+   }
+
+   /**
+    * Replaces everything known about one user with freshly read rows, laid
+    * out as in load: userId, company or institution, start and end date.
+    */
+   public synchronized void replaceUser (String userId, ResultTable work, ResultTable edu) {
+      int user = userId(userId);
+      removeRows(WORK, user);
+      removeRows(EDUCATION, user);
+      addRows(WORK, work);
+      addRows(EDUCATION, edu);
+   }
+
+   public synchronized int userCount () { return this._users.size(); }
+   public synchronized int rowCount () { return this._sides[WORK].rows + this._sides[EDUCATION].rows; }
+
+   /* ---------------------------------- search ------------------------------- */
+
+   /**
+    * Finds everyone who was at one of the user's companies or institutions
+    * at the same time, with the longest overlap per person.
+    *
+    * @param userId the user whose tenures are searched
+    * @param limit how many colleagues to return
+    */
+   public synchronized Result colleagues (String userId, int limit) {
+      List<Match> matches = new ArrayList<Match>();
+      Integer me = this._userIds.get(userId.trim());
+      if (me == null)
+         return new Result(0, matches);
+      if (this._seen.length < this._users.size()) {
+         this._seen = new int[Math.max(this._users.size(), this._seen.length * 2)];
+         this._slot = new int[this._seen.length];
+         this._tick = 0;
+      }
+      ++this._tick;
+      this._hitUser.size = this._hitKind.size = this._hitGroup.size = 0;
+      this._hitFrom.size = this._hitTo.size = this._hitDays.size = 0;
+      int today = (int) (System.currentTimeMillis() / 86400000L);
+
+      for (int kind = 0; kind < this._sides.length; ++kind) {
+         Side side = this._sides[kind];
+         DirectoryIndex.IntList own = me < side.userRows.size() ? side.userRows.get(me) : null;
+         if (own == null)
+            continue;
+         for (int i = 0; i < own.size; i += 3) {
+            Group g = side.groups.get(own.data[i]);
+            if (g.maxEnd == null)
+               g.build();
+            search(g, 0, g.size, own.data[i + 1], own.data[i + 2], me, kind, own.data[i], today);
+         }
+      }
+
+      int[] best = NetworkSnapshot.topK(this._hitDays.toArray(), limit);
+      for (int i : best)
+         matches.add(new Match(this._users.get(this._hitUser.data[i]), this._hitKind.data[i],
+                               this._sides[this._hitKind.data[i]].groups.get(this._hitGroup.data[i]).name,
+                               this._hitFrom.data[i], this._hitTo.data[i]));
+      return new Result(this._hitUser.size, matches);
+   }//end colleagues
+
+   /**
+    * Visits the rows of g[lo, hi) overlapping [start, end], both days
+    * included.
+    */
+   private void search (Group g, int lo, int hi, int start, int end, int me, int kind, int group, int today) {
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (g.maxEnd[mid] < start)
+            return;
+         search(g, lo, mid, start, end, me, kind, group, today);
+         // everything from mid on starts after the tenure ends
+         if (g.start[mid] > end)
+            return;
+         if (g.end[mid] >= start && g.user[mid] != me)
+            hit(g.user[mid], kind, group, Math.max(start, g.start[mid]), Math.min(end, g.end[mid]), today);
+         lo = mid + 1;
+      }
+   }
+
+   private void hit (int user, int kind, int group, int from, int to, int today) {
+      // a running overlap counts until today
+      int days = Math.min(to, Math.max(today, from)) - from + 1;
+      if (this._seen[user] == this._tick) {
+         int slot = this._slot[user];
+         if (days <= this._hitDays.data[slot])
+            return;
+         this._hitKind.data[slot] = kind;
+         this._hitGroup.data[slot] = group;
+         this._hitFrom.data[slot] = from;
+         this._hitTo.data[slot] = to;
+         this._hitDays.data[slot] = days;
+         return;
+      }
+      this._seen[user] = this._tick;
+      this._slot[user] = this._hitUser.size;
+      this._hitUser.add(user);
+      this._hitKind.add(kind);
+      this._hitGroup.add(group);
+      this._hitFrom.add(from);
+      this._hitTo.add(to);
+      this._hitDays.add(days);
+   }
+
+   /**
+    * Loads a snapshot and lists one user's colleagues, or times the search
+    * for random users when no userId is given.
+    *
+    * @param args the snapshot directory, then an optional userId
+    */
+   public static void main (String[] args) {
+      if (args.length < 1 || args.length > 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            TenureIndex.class.getName () +
+            " <snapshot dir> [userId]");
+         return;
+      }//end if
+
+      try {
+         long start = System.nanoTime();
+         TenureIndex t = load(new NetworkSnapshot(new File(args[0])));
+         long built = System.nanoTime();
+         System.out.printf("Indexed %d tenures of %d users in %.2f ms%n", t.rowCount(), t.userCount(),
+                           (built - start) / 1e6);
+         if (args.length == 2) {
+            Result r = t.colleagues(args[1], 20);
+            // a second run without class loading and JIT warmup is the figure to quote
+            long t0 = System.nanoTime();
+            r = t.colleagues(args[1], 20);
+            System.out.printf("%d colleagues, search took %.3f ms%n", r.total, (System.nanoTime() - t0) / 1e6);
+            print(r);
+            return;
+         }
+         Random random = new Random(1);
+         int searches = Math.min(2000, t.userCount());
+         double[] millis = new double[searches];
+         long found = 0;
+         for (int i = -searches; i < searches; ++i) {   // the first round warms up and sorts the groups
+            String user = t._users.get(random.nextInt(t.userCount()));
+            long t0 = System.nanoTime();
+            Result r = t.colleagues(user, 20);
+            if (i >= 0) {
+               millis[i] = (System.nanoTime() - t0) / 1e6;
+               found += r.total;
+            }
+         }
+         Arrays.sort(millis);
+         System.out.printf("%d searches: p50 %.3f ms, p99 %.3f ms, max %.3f ms, %.1f colleagues each%n", searches,
+                           millis[searches / 2], millis[searches * 99 / 100], millis[searches - 1],
+                           (double) found / searches);
+      } catch (IOException e) {
+         System.err.println(e.getMessage());
+      }
+   }//end main
+
+   /**
+    * Prints colleagues with where and when they overlapped.
+    */
+   public static void print (Result r) {
+      for (Match m : r.matches)
+         System.out.printf("%s\t%s %s\t%s to %s%n", m.userId, KIND_NAMES[m.kind], m.place,
+                           NetworkSnapshot.fromEpochDay(m.from),
+                           m.to == OPEN ? "present" : NetworkSnapshot.fromEpochDay(m.to));
+      if (r.total > r.matches.size())
+         System.out.printf("... and %d more%n", r.total - r.matches.size());
+   }//end print
+
+}//end TenureIndex
@@ -2,4 +2,6 @@
 export DB_NAME=$USER"_DB"
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_tables.sql
-psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_index.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_index.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_counters.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_notify.sql
\ No newline at end of file
@@ -0,0 +1,9 @@
+#!/bin/bash
+# Lists users whose USER_COUNTERS drifted from the tables they count.
+# With --repair the drifted rows are rewritten from the tables.
+export DB_NAME=$USER"_DB"
+if [ "$1" == "--repair" ]; then
+   psql -h localhost -p $PGPORT $DB_NAME -c "SELECT repair_user_counters() AS repaired;"
+else
+   psql -h localhost -p $PGPORT $DB_NAME -c "SELECT * FROM USER_COUNTERS_DRIFT ORDER BY userId;"
+fi
@@ -0,0 +1,244 @@
+/* per-user counters shown right after login, kept current by triggers */
+DROP TRIGGER IF EXISTS Connection_counters_trigger ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS Connection_friends_insert_trigger ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS Connection_friends_update_trigger ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS Connection_friends_delete_trigger ON CONNECTION_USR;
+DROP FUNCTION IF EXISTS counters_add_friend(varchar, varchar, integer);
+DROP TRIGGER IF EXISTS Message_counters_trigger ON MESSAGE;
+DROP VIEW IF EXISTS USER_COUNTERS_DRIFT;
+DROP VIEW IF EXISTS USER_COUNTERS_EXPECTED;
+DROP TABLE IF EXISTS USER_COUNTERS;
+
+/*
+ * pendingRequests  Request rows whose connectionId is the user
+ * friends          distinct users joined to the user by an Accept row in either
+ *                  direction, as FriendList lists them; A->B and B->A count once
+ * inboxMessages    received messages the receiver has not deleted (deleteStatus 0 or 1)
+ * unreadMessages   the inbox messages whose status is not 'Read'
+ * outboxMessages   sent messages the sender has not deleted (deleteStatus 0 or 2)
+ *
+ * connectionId has no foreign key, so there is none here either.
+ *
+ * friends is kept by statement-level triggers (PostgreSQL 10 or later for
+ * transition tables): a statement may write A->B and B->A together, and a
+ * row trigger of either row already sees the other, so per row the pair
+ * would count 0 times on insert and twice on delete. The other counters
+ * are kept per row. Two transactions that each write one direction of a
+ * pair at the same time still count it twice; USER_COUNTERS_DRIFT shows
+ * that and repair_user_counters() fixes it.
+ */
+CREATE TABLE USER_COUNTERS(
+	userId varchar(30) NOT NULL,
+	pendingRequests integer NOT NULL DEFAULT 0,
+	friends integer NOT NULL DEFAULT 0,
+	inboxMessages integer NOT NULL DEFAULT 0,
+	unreadMessages integer NOT NULL DEFAULT 0,
+	outboxMessages integer NOT NULL DEFAULT 0,
+	PRIMARY KEY(userId)
+);
+
+/* what the counters must be, computed from scratch */
+CREATE VIEW USER_COUNTERS_EXPECTED AS
+SELECT X.userId,
+       SUM(X.p)::integer AS pendingRequests,
+       SUM(X.f)::integer AS friends,
+       SUM(X.i)::integer AS inboxMessages,
+       SUM(X.u)::integer AS unreadMessages,
+       SUM(X.o)::integer AS outboxMessages
+FROM (SELECT rtrim(C.connectionId)::varchar(30) AS userId, 1 AS p, 0 AS f, 0 AS i, 0 AS u, 0 AS o
+      FROM CONNECTION_USR C WHERE C.status = 'Request'
+      UNION ALL
+      SELECT F.userId, 0, 1, 0, 0, 0
+      FROM (SELECT C.userId, rtrim(C.connectionId) AS friend FROM CONNECTION_USR C WHERE C.status = 'Accept'
+            UNION
+            SELECT rtrim(C.connectionId)::varchar(30), C.userId FROM CONNECTION_USR C WHERE C.status = 'Accept') F
+      UNION ALL
+      SELECT M.receiverId, 0, 0, 1, CASE WHEN M.status = 'Read' THEN 0 ELSE 1 END, 0
+      FROM MESSAGE M WHERE M.deleteStatus IN (0, 1)
+      UNION ALL
+      SELECT M.senderId, 0, 0, 0, 0, 1 FROM MESSAGE M WHERE M.deleteStatus IN (0, 2)) X
+GROUP BY X.userId;
+
+/* users whose stored counters differ from the expected ones */
+CREATE VIEW USER_COUNTERS_DRIFT AS
+SELECT COALESCE(S.userId, E.userId) AS userId,
+       COALESCE(S.pendingRequests, 0) AS storedPending, COALESCE(E.pendingRequests, 0) AS expectedPending,
+       COALESCE(S.friends, 0) AS storedFriends, COALESCE(E.friends, 0) AS expectedFriends,
+       COALESCE(S.inboxMessages, 0) AS storedInbox, COALESCE(E.inboxMessages, 0) AS expectedInbox,
+       COALESCE(S.unreadMessages, 0) AS storedUnread, COALESCE(E.unreadMessages, 0) AS expectedUnread,
+       COALESCE(S.outboxMessages, 0) AS storedOutbox, COALESCE(E.outboxMessages, 0) AS expectedOutbox
+FROM USER_COUNTERS S FULL OUTER JOIN USER_COUNTERS_EXPECTED E ON S.userId = E.userId
+WHERE COALESCE(S.pendingRequests, 0) <> COALESCE(E.pendingRequests, 0)
+   OR COALESCE(S.friends, 0) <> COALESCE(E.friends, 0)
+   OR COALESCE(S.inboxMessages, 0) <> COALESCE(E.inboxMessages, 0)
+   OR COALESCE(S.unreadMessages, 0) <> COALESCE(E.unreadMessages, 0)
+   OR COALESCE(S.outboxMessages, 0) <> COALESCE(E.outboxMessages, 0);
+
+/* adds deltas to one user's counters, creating the row on first use */
+CREATE OR REPLACE FUNCTION counters_add(uid varchar, d_pending integer, d_friends integer,
+                                        d_inbox integer, d_unread integer, d_outbox integer)
+RETURNS void AS
+   $BODY$
+   BEGIN
+      IF uid IS NULL OR (d_pending = 0 AND d_friends = 0 AND d_inbox = 0 AND d_unread = 0 AND d_outbox = 0) THEN
+         RETURN;
+      END IF;
+      INSERT INTO USER_COUNTERS AS UC (userId, pendingRequests, friends, inboxMessages, unreadMessages, outboxMessages)
+      VALUES (rtrim(uid), d_pending, d_friends, d_inbox, d_unread, d_outbox)
+      ON CONFLICT (userId) DO UPDATE
+         SET pendingRequests = UC.pendingRequests + EXCLUDED.pendingRequests,
+             friends = UC.friends + EXCLUDED.friends,
+             inboxMessages = UC.inboxMessages + EXCLUDED.inboxMessages,
+             unreadMessages = UC.unreadMessages + EXCLUDED.unreadMessages,
+             outboxMessages = UC.outboxMessages + EXCLUDED.outboxMessages;
+   END;
+   $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+/*
+ * applies the friends changes of one statement, given the rows it removed
+ * and the rows it wrote: each pair an Accept row of either set touches is
+ * looked up as it is now and as it was before the statement (now, minus
+ * the rows written, plus the rows removed), and both users gain or lose a
+ * friend when that differs; a row from a user to themselves is one friend
+ */
+CREATE OR REPLACE FUNCTION counters_friends_changed(old_rows CONNECTION_USR[], new_rows CONNECTION_USR[])
+RETURNS void AS
+   $BODY$
+   BEGIN
+      PERFORM counters_add(D.uid, 0, D.d, 0, 0, 0)
+      FROM (WITH O AS (SELECT rtrim(R.userId) AS u, rtrim(R.connectionId) AS c
+                       FROM unnest(old_rows) R WHERE R.status = 'Accept'),
+                 N AS (SELECT rtrim(R.userId) AS u, rtrim(R.connectionId) AS c
+                       FROM unnest(new_rows) R WHERE R.status = 'Accept'),
+                 P AS (SELECT DISTINCT least(X.u, X.c) AS a, greatest(X.u, X.c) AS b
+                       FROM (SELECT * FROM O UNION ALL SELECT * FROM N) X),
+                 NOW_ROWS AS (SELECT rtrim(C.userId) AS u, rtrim(C.connectionId) AS c
+                              FROM CONNECTION_USR C, P
+                              WHERE C.userId = P.a AND C.connectionId = P.b::char(30) AND C.status = 'Accept'
+                              UNION
+                              SELECT rtrim(C.userId), rtrim(C.connectionId)
+                              FROM CONNECTION_USR C, P
+                              WHERE C.userId = P.b AND C.connectionId = P.a::char(30) AND C.status = 'Accept'),
+                 BEFORE_ROWS AS ((SELECT * FROM NOW_ROWS EXCEPT SELECT * FROM N) UNION SELECT * FROM O),
+                 PAIRS AS (SELECT P.a, P.b,
+                                  (EXISTS (SELECT 1 FROM NOW_ROWS R
+                                           WHERE least(R.u, R.c) = P.a AND greatest(R.u, R.c) = P.b))::integer
+                                - (EXISTS (SELECT 1 FROM BEFORE_ROWS R
+                                           WHERE least(R.u, R.c) = P.a AND greatest(R.u, R.c) = P.b))::integer AS d
+                           FROM P)
+            SELECT U.uid, SUM(U.d)::integer AS d
+            FROM (SELECT PAIRS.a AS uid, PAIRS.d FROM PAIRS
+                  UNION ALL
+                  SELECT PAIRS.b, PAIRS.d FROM PAIRS WHERE PAIRS.b <> PAIRS.a) U
+            GROUP BY U.uid
+            HAVING SUM(U.d) <> 0) D;
+   END;
+   $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+/* a Request row leaving counts -1, one arriving +1, an UPDATE is both */
+CREATE OR REPLACE FUNCTION connection_counters_func() RETURNS "trigger" AS
+   $BODY$
+   BEGIN
+      IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.status = 'Request' THEN
+         PERFORM counters_add(OLD.connectionId, -1, 0, 0, 0, 0);
+      END IF;
+      IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.status = 'Request' THEN
+         PERFORM counters_add(NEW.connectionId, 1, 0, 0, 0, 0);
+      END IF;
+      RETURN NULL;
+   END;
+   $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+/* one call per statement, with the rows it removed and wrote */
+CREATE OR REPLACE FUNCTION connection_friends_func() RETURNS "trigger" AS
+   $BODY$
+   BEGIN
+      IF TG_OP = 'INSERT' THEN
+         PERFORM counters_friends_changed(ARRAY[]::CONNECTION_USR[],
+            ARRAY(SELECT ROW(N.userId, N.connectionId, N.status)::CONNECTION_USR FROM new_rows N));
+      ELSIF TG_OP = 'UPDATE' THEN
+         PERFORM counters_friends_changed(
+            ARRAY(SELECT ROW(O.userId, O.connectionId, O.status)::CONNECTION_USR FROM old_rows O),
+            ARRAY(SELECT ROW(N.userId, N.connectionId, N.status)::CONNECTION_USR FROM new_rows N));
+      ELSE
+         PERFORM counters_friends_changed(
+            ARRAY(SELECT ROW(O.userId, O.connectionId, O.status)::CONNECTION_USR FROM old_rows O),
+            ARRAY[]::CONNECTION_USR[]);
+      END IF;
+      RETURN NULL;
+   END;
+   $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION message_counters_func() RETURNS "trigger" AS
+   $BODY$
+   BEGIN
+      IF TG_OP IN ('UPDATE', 'DELETE') THEN
+         IF OLD.deleteStatus IN (0, 1) THEN
+            PERFORM counters_add(OLD.receiverId, 0, 0, -1, CASE WHEN OLD.status = 'Read' THEN 0 ELSE -1 END, 0);
+         END IF;
+         IF OLD.deleteStatus IN (0, 2) THEN
+            PERFORM counters_add(OLD.senderId, 0, 0, 0, 0, -1);
+         END IF;
+      END IF;
+      IF TG_OP IN ('INSERT', 'UPDATE') THEN
+         IF NEW.deleteStatus IN (0, 1) THEN
+            PERFORM counters_add(NEW.receiverId, 0, 0, 1, CASE WHEN NEW.status = 'Read' THEN 0 ELSE 1 END, 0);
+         END IF;
+         IF NEW.deleteStatus IN (0, 2) THEN
+            PERFORM counters_add(NEW.senderId, 0, 0, 0, 0, 1);
+         END IF;
+      END IF;
+      RETURN NULL;
+   END;
+   $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+/* fixes every drifted row, returns how many users were repaired */
+CREATE OR REPLACE FUNCTION repair_user_counters() RETURNS integer AS
+   $BODY$
+   DECLARE
+      fixed integer;
+   BEGIN
+      LOCK TABLE CONNECTION_USR, MESSAGE IN SHARE MODE;
+      SELECT COUNT(*) INTO fixed FROM USER_COUNTERS_DRIFT;
+      INSERT INTO USER_COUNTERS AS UC (userId, pendingRequests, friends, inboxMessages, unreadMessages, outboxMessages)
+      SELECT D.userId, D.expectedPending, D.expectedFriends, D.expectedInbox, D.expectedUnread, D.expectedOutbox
+      FROM USER_COUNTERS_DRIFT D
+      ON CONFLICT (userId) DO UPDATE
+         SET pendingRequests = EXCLUDED.pendingRequests,
+             friends = EXCLUDED.friends,
+             inboxMessages = EXCLUDED.inboxMessages,
+             unreadMessages = EXCLUDED.unreadMessages,
+             outboxMessages = EXCLUDED.outboxMessages;
+      RETURN fixed;
+   END;
+   $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+/* start from the current data, then let the triggers take over */
+INSERT INTO USER_COUNTERS (userId, pendingRequests, friends, inboxMessages, unreadMessages, outboxMessages)
+SELECT userId, pendingRequests, friends, inboxMessages, unreadMessages, outboxMessages
+FROM USER_COUNTERS_EXPECTED;
+
+CREATE TRIGGER Connection_counters_trigger AFTER INSERT OR UPDATE OR DELETE ON CONNECTION_USR
+   FOR EACH ROW EXECUTE PROCEDURE connection_counters_func();
+
+/* transition tables need one trigger per event */
+CREATE TRIGGER Connection_friends_insert_trigger AFTER INSERT ON CONNECTION_USR
+   REFERENCING NEW TABLE AS new_rows
+   FOR EACH STATEMENT EXECUTE PROCEDURE connection_friends_func();
+
+CREATE TRIGGER Connection_friends_update_trigger AFTER UPDATE ON CONNECTION_USR
+   REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+   FOR EACH STATEMENT EXECUTE PROCEDURE connection_friends_func();
+
+CREATE TRIGGER Connection_friends_delete_trigger AFTER DELETE ON CONNECTION_USR
+   REFERENCING OLD TABLE AS old_rows
+   FOR EACH STATEMENT EXECUTE PROCEDURE connection_friends_func();
+
+CREATE TRIGGER Message_counters_trigger AFTER INSERT OR UPDATE OR DELETE ON MESSAGE
+   FOR EACH ROW EXECUTE PROCEDURE message_counters_func();
@@ -33,6 +33,15 @@ ON WORK_EXPR USING BTREE (startDate);
 CREATE INDEX Work_endDate_index
 ON WORK_EXPR USING BTREE (endDate);
 
+/* tenures at one company that overlap, see TenureIndex; btree_gist puts the
+   company in the same GiST index as the date range. Rows without a start
+   date or ending before they start are left out, as daterange rejects them */
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+CREATE INDEX Work_tenure_index
+ON WORK_EXPR USING GIST (company, daterange(startDate, endDate, '[]'))
+WHERE startDate <= COALESCE(endDate, startDate);
+
 /* indexes for EDUCATIONAL_DETAILS table */
 CREATE INDEX Education_userId_index
 ON EDUCATIONAL_DETAILS USING BTREE (userId);
@@ -52,6 +61,10 @@ ON EDUCATIONAL_DETAILS USING BTREE (startDate);
 CREATE INDEX Education_endDate_index
 ON EDUCATIONAL_DETAILS USING BTREE (endDate);
 
+CREATE INDEX Education_tenure_index
+ON EDUCATIONAL_DETAILS USING GIST (instituitionName, daterange(startdate, enddate, '[]'))
+WHERE startdate <= COALESCE(enddate, startdate);
+
 /* indexes for MESSAGE table */
 CREATE UNIQUE INDEX Message_messageId_index
 ON MESSAGE USING BTREE (msgId);
@@ -62,8 +75,15 @@ ON MESSAGE USING BTREE (senderId);
 CREATE INDEX Message_receiverId_index
 ON MESSAGE USING BTREE (receiverId);
 
-CREATE INDEX Message_contents_index
-ON MESSAGE USING BTREE (contents);
+/* keyword search over a user's own messages, see SearchMessages; btree_gin
+   puts the user column in the same GIN index, so user and words match together */
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+
+CREATE INDEX Message_receiver_search_index
+ON MESSAGE USING GIN (receiverId, to_tsvector('english', contents));
+
+CREATE INDEX Message_sender_search_index
+ON MESSAGE USING GIN (senderId, to_tsvector('english', contents));
 
 CREATE INDEX Message_sendTime_index
 ON MESSAGE USING BTREE (sendTime);
@@ -0,0 +1,51 @@
+/* push notifications for ProfNetwork sessions, see NotificationListener.java */
+DROP TRIGGER IF EXISTS Message_notify_trigger ON MESSAGE;
+DROP TRIGGER IF EXISTS Connection_notify_trigger ON CONNECTION_USR;
+
+/*
+ * One channel per user and kind, so a client that cannot read payloads
+ * still knows what happened and to whom:
+ *   msg_<md5(userId)>  a message arrived in the user's inbox
+ *   req_<md5(userId)>  someone sent the user a connection request
+ *   con_<md5(userId)>  a request the user sent was accepted or rejected
+ * The md5 keeps any userId a valid channel name. The payload is the
+ * message id or the other user, which also keeps two events in one
+ * transaction from being folded into one.
+ */
+CREATE OR REPLACE FUNCTION notify_channel(kind text, uid varchar) RETURNS text AS
+   $BODY$
+   BEGIN
+      RETURN kind || '_' || md5(rtrim(uid));
+   END;
+   $BODY$
+ LANGUAGE plpgsql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION message_notify_func() RETURNS "trigger" AS
+   $BODY$
+   BEGIN
+      IF NEW.deleteStatus IN (0, 1) THEN
+         PERFORM pg_notify(notify_channel('msg', NEW.receiverId), NEW.msgId::text);
+      END IF;
+      RETURN NULL;
+   END;
+   $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION connection_notify_func() RETURNS "trigger" AS
+   $BODY$
+   BEGIN
+      IF NEW.status = 'Request' AND (TG_OP = 'INSERT' OR OLD.status <> 'Request') THEN
+         PERFORM pg_notify(notify_channel('req', NEW.connectionId), NEW.userId);
+      ELSIF TG_OP = 'UPDATE' AND OLD.status = 'Request' AND NEW.status <> 'Request' THEN
+         PERFORM pg_notify(notify_channel('con', NEW.userId), rtrim(NEW.connectionId));
+      END IF;
+      RETURN NULL;
+   END;
+   $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TRIGGER Message_notify_trigger AFTER INSERT ON MESSAGE
+   FOR EACH ROW EXECUTE PROCEDURE message_notify_func();
+
+CREATE TRIGGER Connection_notify_trigger AFTER INSERT OR UPDATE OF status ON CONNECTION_USR
+   FOR EACH ROW EXECUTE PROCEDURE connection_notify_func();
@@ -14,6 +14,7 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,6 +22,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.math.BigDecimal;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -98,6 +100,39 @@ public class EmbeddedSQL {
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
 
+      int rowCount = printResult(rs);
+      stmt.close ();
+      return rowCount;
+   }//end executeQuery
+
+   /**
+    * Method to execute a prepared query whose parameters are already bound.
+    * This keeps user input out of the SQL text. The results are printed to
+    * standard out and the statement is closed.
+    *
+    * @param stmt the prepared statement from prepare
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (PreparedStatement stmt) throws SQLException {
+      ResultSet rs = stmt.executeQuery ();
+      int rowCount = printResult(rs);
+      stmt.close ();
+      return rowCount;
+   }//end executeQuery
+
+   /**
+    * Method to create a prepared statement on the physical connection.
+    *
+    * @param query the SQL text with ? placeholders
+    * @return the prepared statement
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (String query) throws SQLException {
+      return this._connection.prepareStatement (query);
+   }//end prepare
+
+   private static int printResult (ResultSet rs) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
@@ -121,9 +156,8 @@ public class EmbeddedSQL {
          System.out.println ();
          ++rowCount;
       }//end while
-      stmt.close ();
       return rowCount;
-   }//end executeQuery
+   }//end printResult
 
    /**
     * Method to close the physical connection if it is open.
@@ -236,10 +270,10 @@ public class EmbeddedSQL {
 
    public static void QueryExample(EmbeddedSQL esql){
       try{
-         String query = "SELECT * FROM Catalog WHERE cost < ";
+         PreparedStatement query = esql.prepare("SELECT * FROM Catalog WHERE cost < ?");
          System.out.print("\tEnter cost: $");
          String input = in.readLine();
-         query += input;
+         query.setBigDecimal(1, new BigDecimal(input.trim()));
 
          int rowCount = esql.executeQuery(query);
          System.out.println ("total row(s): " + rowCount);
@@ -294,10 +328,10 @@ public class EmbeddedSQL {
 
    public static void Query5(EmbeddedSQL esql){
       try{
-         String query = "SELECT DISTINCT P.pname FROM Parts P, Catalog C WHERE P.pid = C.pid AND C.cost < ";
+         PreparedStatement query = esql.prepare("SELECT DISTINCT P.pname FROM Parts P, Catalog C WHERE P.pid = C.pid AND C.cost < ?");
          System.out.print("\tEnter cost: $");
          String input = in.readLine();
-         query += input;
+         query.setBigDecimal(1, new BigDecimal(input.trim()));
 
          int rowCount = esql.executeQuery(query);
          System.out.println ("total row(s): " + rowCount);
@@ -308,11 +342,10 @@ public class EmbeddedSQL {
 
    public static void Query6(EmbeddedSQL esql){
       try{
-         String query = "SELECT DISTINCT S.address FROM suppiers S, Parts P, Catalog C WHERE S.sid = C.sid AND P.pid = C.pid AND P.pname = ";
+         PreparedStatement query = esql.prepare("SELECT DISTINCT S.address FROM Suppliers S, Parts P, Catalog C WHERE S.sid = C.sid AND P.pid = C.pid AND P.pname = ?");
          System.out.print("\tEnter name: ");
          String input = in.readLine();
-	 input = "\'" + input + "\'";
-         query += input;
+         query.setString(1, input);
 
          int rowCount = esql.executeQuery(query);
          System.out.println ("total row(s): " + rowCount);
@@ -0,0 +1,487 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory engine for the EmbeddedSQL supplier reports. Suppliers, Parts and
+ * Catalog are loaded once into arrays indexed through open-addressing hash
+ * tables keyed by sid and pid. A single pass over the catalog then computes
+ * everything the six reports need, and the reports with a user parameter
+ * (cost limit, part name) are answered from the precomputed structures
+ * without touching the database again.
+ *
+ * Report semantics follow the SQL in EmbeddedSQL, including grouping by
+ * sname rather than sid. Running main benchmarks the engine against the SQL.
+ */
+public class SupplierReports {
+
+   /**
+    * Open-addressing map from an int key to a dense index 0..size-1.
+    */
+   static final class IntIndex {
+      private int[] keys;
+      private int[] values;
+      private int size;
+
+      IntIndex (int expected) {
+         int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+         this.keys = new int[cap];
+         this.values = new int[cap];
+         Arrays.fill(this.values, -1);
+      }
+
+      int size () { return this.size; }
+
+      // returns the existing index of key, or assigns the next one
+      int add (int key) {
+         int slot = find(key);
+         if (this.values[slot] < 0) {
+            this.keys[slot] = key;
+            this.values[slot] = this.size++;
+            if (this.size * 2 > this.keys.length)
+               grow();
+         } else {
+            return this.values[slot];
+         }
+         return this.size - 1;
+      }
+
+      int get (int key) {
+         return this.values[find(key)];
+      }
+
+      private int find (int key) {
+         int mask = this.keys.length - 1;
+         int slot = (key * 0x9E3779B9) >>> 7 & mask;
+         while (this.values[slot] >= 0 && this.keys[slot] != key)
+            slot = (slot + 1) & mask;
+         return slot;
+      }
+
+      private void grow () {
+         int[] oldKeys = this.keys, oldValues = this.values;
+         this.keys = new int[oldKeys.length * 2];
+         this.values = new int[oldKeys.length * 2];
+         Arrays.fill(this.values, -1);
+         for (int i = 0; i < oldKeys.length; ++i)
+            if (oldValues[i] >= 0) {
+               int slot = find(oldKeys[i]);
+               this.keys[slot] = oldKeys[i];
+               this.values[slot] = oldValues[i];
+            }
+      }
+   }//end IntIndex
+
+   // Suppliers, by dense supplier index
+   private final IntIndex _sid = new IntIndex(64);
+   private String[] _sname = new String[0];
+   private String[] _address = new String[0];
+
+   // Parts, by dense part index
+   private final IntIndex _pid = new IntIndex(64);
+   private String[] _pname = new String[0];
+   private String[] _color = new String[0];
+
+   // Catalog rows, cost in cents
+   private int _rows;
+   private int[] _catSupplier = new int[0];
+   private int[] _catPart = new int[0];
+   private long[] _catCost = new long[0];
+
+   // results of the single pass
+   private String[] _groups;              // distinct snames, sorted
+   private int[] _groupOf;                // supplier -> group
+   private int[] _groupRows;              // catalog rows, a group without any is not in a join
+   private int[] _groupParts;             // reports 1 and 2
+   private int[] _groupGreenParts;        // report 3
+   private boolean[] _groupGreen;
+   private long[] _groupMaxRedGreen;      // report 4, -1 when none
+   private long[] _costSorted;            // catalog costs ascending
+   private int[] _partsByMinCost;         // parts ordered by cheapest offer
+   private long[] _partMinCost;
+   private Map<String, String[]> _addressesByPart;   // report 6
+
+   /* --------------------------------- loading ------------------------------- */
+
+   private static String trim (String s) {
+      return s == null ? null : s.trim();
+   }
+
+   // stored costs are NUMERIC(10,2), so this never actually rounds
+   private static long cents (BigDecimal cost) {
+      return cost.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+   }
+
+   // a cent amount c satisfies c < limit exactly when c < limitCents(limit)
+   private static long limitCents (BigDecimal limit) {
+      return limit.movePointRight(2).setScale(0, RoundingMode.CEILING).longValue();
+   }
+
+   /**
+    * Reads the three tables once through the EmbeddedSQL connection.
+    *
+    * @param esql an open EmbeddedSQL
+    * @throws java.sql.SQLException when a query fails
+    */
+   public void load (EmbeddedSQL esql) throws SQLException {
+      List<String[]> suppliers = new ArrayList<String[]>();
+      PreparedStatement stmt = esql.prepare("SELECT sid, sname, address FROM Suppliers");
+      ResultSet rs = stmt.executeQuery();
+      while (rs.next()) {
+         int s = this._sid.add(rs.getInt(1));
+         if (s == suppliers.size())
+            suppliers.add(new String[]{ trim(rs.getString(2)), trim(rs.getString(3)) });
+      }
+      stmt.close();
+      this._sname = new String[suppliers.size()];
+      this._address = new String[suppliers.size()];
+      for (int s = 0; s < suppliers.size(); ++s) {
+         this._sname[s] = suppliers.get(s)[0];
+         this._address[s] = suppliers.get(s)[1];
+      }
+
+      List<String[]> parts = new ArrayList<String[]>();
+      stmt = esql.prepare("SELECT pid, pname, color FROM Parts");
+      rs = stmt.executeQuery();
+      while (rs.next()) {
+         int p = this._pid.add(rs.getInt(1));
+         if (p == parts.size())
+            parts.add(new String[]{ trim(rs.getString(2)), trim(rs.getString(3)) });
+      }
+      stmt.close();
+      this._pname = new String[parts.size()];
+      this._color = new String[parts.size()];
+      for (int p = 0; p < parts.size(); ++p) {
+         this._pname[p] = parts.get(p)[0];
+         this._color[p] = parts.get(p)[1];
+      }
+
+      int cap = 64, n = 0;
+      int[] sup = new int[cap], part = new int[cap];
+      long[] cost = new long[cap];
+      stmt = esql.prepare("SELECT sid, pid, cost FROM Catalog");
+      rs = stmt.executeQuery();
+      while (rs.next()) {
+         int s = this._sid.get(rs.getInt(1)), p = this._pid.get(rs.getInt(2));
+         // the foreign keys make this impossible, but an inner join drops them
+         if (s < 0 || p < 0)
+            continue;
+         if (n == cap) {
+            cap *= 2;
+            sup = Arrays.copyOf(sup, cap);
+            part = Arrays.copyOf(part, cap);
+            cost = Arrays.copyOf(cost, cap);
+         }
+         BigDecimal c = rs.getBigDecimal(3);
+         sup[n] = s;
+         part[n] = p;
+         cost[n] = c == null ? Long.MAX_VALUE : cents(c);
+         ++n;
+      }
+      stmt.close();
+      this._rows = n;
+      this._catSupplier = sup;
+      this._catPart = part;
+      this._catCost = cost;
+   }//end load
+
+   /* ------------------------------- single pass ----------------------------- */
+
+   /**
+    * Computes every report from one scan of the catalog.
+    */
+   public void evaluate () {
+      int suppliers = this._sname.length, parts = this._pname.length;
+
+      // group suppliers by name like GROUP BY S.sname
+      TreeMap<String, Integer> names = new TreeMap<String, Integer>();
+      for (String name : this._sname)
+         names.put(name == null ? "" : name, 0);
+      this._groups = names.keySet().toArray(new String[names.size()]);
+      int g = 0;
+      for (Map.Entry<String, Integer> e : names.entrySet())
+         e.setValue(g++);
+      this._groupOf = new int[suppliers];
+      for (int s = 0; s < suppliers; ++s)
+         this._groupOf[s] = names.get(this._sname[s] == null ? "" : this._sname[s]);
+
+      int groups = this._groups.length;
+      int[] supplierRows = new int[suppliers];
+      int[] supplierParts = new int[suppliers];
+      boolean[] supplierGreen = new boolean[suppliers];
+      long[] groupMax = new long[groups];
+      Arrays.fill(groupMax, -1);
+      long[] partMin = new long[parts];
+      Arrays.fill(partMin, Long.MAX_VALUE);
+      int[] offersPerPart = new int[parts + 1];
+
+      for (int r = 0; r < this._rows; ++r) {
+         int s = this._catSupplier[r], p = this._catPart[r];
+         long cost = this._catCost[r];
+         String color = this._color[p];
+         supplierRows[s]++;
+         if (this._pname[p] != null)
+            supplierParts[s]++;
+         if ("Green".equals(color))
+            supplierGreen[s] = true;
+         if (("Green".equals(color) || "Red".equals(color)) && cost != Long.MAX_VALUE && cost > groupMax[this._groupOf[s]])
+            groupMax[this._groupOf[s]] = cost;
+         if (cost < partMin[p])
+            partMin[p] = cost;
+         offersPerPart[p + 1]++;
+      }
+
+      // the pass above only counts; these finish the per-group figures
+      this._groupRows = new int[groups];
+      this._groupParts = new int[groups];
+      this._groupGreenParts = new int[groups];
+      boolean[] groupGreen = new boolean[groups];
+      for (int s = 0; s < suppliers; ++s) {
+         this._groupRows[this._groupOf[s]] += supplierRows[s];
+         this._groupParts[this._groupOf[s]] += supplierParts[s];
+         // report 3: suppliers with at least one green part, all their parts
+         if (supplierGreen[s]) {
+            groupGreen[this._groupOf[s]] = true;
+            this._groupGreenParts[this._groupOf[s]] += supplierParts[s];
+         }
+      }
+      this._groupGreen = groupGreen;
+      this._groupMaxRedGreen = groupMax;
+      this._partMinCost = partMin;
+
+      this._costSorted = Arrays.copyOf(this._catCost, this._rows);
+      Arrays.sort(this._costSorted);
+
+      Integer[] order = new Integer[parts];
+      for (int p = 0; p < parts; ++p)
+         order[p] = p;
+      final long[] min = partMin;
+      Arrays.sort(order, new Comparator<Integer>() {
+         public int compare (Integer a, Integer b) {
+            return Long.compare(min[a], min[b]);
+         }
+      });
+      this._partsByMinCost = new int[parts];
+      for (int p = 0; p < parts; ++p)
+         this._partsByMinCost[p] = order[p];
+
+      // report 6: distinct supplier addresses per part name
+      for (int p = 0; p < parts; ++p)
+         offersPerPart[p + 1] += offersPerPart[p];
+      int[] fill = Arrays.copyOf(offersPerPart, parts);
+      int[] offerSupplier = new int[this._rows];
+      for (int r = 0; r < this._rows; ++r)
+         offerSupplier[fill[this._catPart[r]]++] = this._catSupplier[r];
+      Map<String, Set<String>> byName = new HashMap<String, Set<String>>();
+      for (int p = 0; p < parts; ++p) {
+         if (this._pname[p] == null)
+            continue;
+         Set<String> addresses = byName.get(this._pname[p]);
+         if (addresses == null)
+            byName.put(this._pname[p], addresses = new LinkedHashSet<String>());
+         for (int i = offersPerPart[p]; i < offersPerPart[p + 1]; ++i)
+            addresses.add(this._address[offerSupplier[i]]);
+      }
+      this._addressesByPart = new HashMap<String, String[]>();
+      for (Map.Entry<String, Set<String>> e : byName.entrySet())
+         if (!e.getValue().isEmpty())
+            this._addressesByPart.put(e.getKey(), e.getValue().toArray(new String[0]));
+   }//end evaluate
+
+   /* --------------------------------- reports ------------------------------- */
+
+   /**
+    * Report 0: number of catalog rows cheaper than a cost.
+    */
+   public int catalogRowsCheaperThan (BigDecimal cost) {
+      return lowerBound(this._costSorted, limitCents(cost));
+   }
+
+   /**
+    * Report 1 (minParts 0) and report 2 (minParts 3): parts per supplier name.
+    */
+   public Map<String, Integer> partsPerSupplier (int minParts) {
+      Map<String, Integer> result = new TreeMap<String, Integer>();
+      for (int g = 0; g < this._groups.length; ++g)
+         if (this._groupRows[g] > 0 && this._groupParts[g] >= minParts)
+            result.put(this._groups[g], this._groupParts[g]);
+      return result;
+   }
+
+   /**
+    * Report 3: part count of every supplier that supplies a green part.
+    */
+   public Map<String, Integer> greenSuppliers () {
+      Map<String, Integer> result = new TreeMap<String, Integer>();
+      for (int g = 0; g < this._groups.length; ++g)
+         if (this._groupGreen[g])
+            result.put(this._groups[g], this._groupGreenParts[g]);
+      return result;
+   }
+
+   /**
+    * Report 4: most expensive red or green part per supplier name.
+    */
+   public Map<String, BigDecimal> maxRedGreenCost () {
+      Map<String, BigDecimal> result = new TreeMap<String, BigDecimal>();
+      for (int g = 0; g < this._groups.length; ++g)
+         if (this._groupMaxRedGreen[g] >= 0)
+            result.put(this._groups[g], BigDecimal.valueOf(this._groupMaxRedGreen[g], 2));
+      return result;
+   }
+
+   /**
+    * Report 5: distinct names of parts offered below a cost.
+    */
+   public Set<String> partsCheaperThan (BigDecimal cost) {
+      long limit = limitCents(cost);
+      Set<String> result = new LinkedHashSet<String>();
+      for (int p : this._partsByMinCost) {
+         if (this._partMinCost[p] >= limit)
+            break;
+         if (this._pname[p] != null)
+            result.add(this._pname[p]);
+      }
+      return result;
+   }
+
+   /**
+    * Report 6: distinct addresses of the suppliers of a part name.
+    */
+   public String[] addressesFor (String pname) {
+      String[] result = this._addressesByPart.get(pname.trim());
+      return result == null ? new String[0] : result;
+   }
+
+   private static int lowerBound (long[] a, long key) {
+      int lo = 0, hi = a.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (a[mid] < key) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+
+   /* -------------------------------- benchmark ------------------------------ */
+
+   // the EmbeddedSQL queries, with the user input as parameters
+   static final String[] SQL = {
+      "SELECT * FROM Catalog WHERE cost < ?",
+      "SELECT S.sname, COUNT(P.pname) FROM Suppliers S, Parts P, Catalog C WHERE S.sid = C.sid AND P.pid = C.pid GROUP BY S.sname",
+      "SELECT S.sname, COUNT(P.pname) as Count_Parts FROM Suppliers S, Parts P, Catalog C WHERE S.sid = C.sid AND P.pid = C.pid GROUP BY S.sname HAVING COUNT(P.pname) > 2",
+      "SELECT S.sname, COUNT(P.pname) FROM Suppliers S, Parts P, Catalog C WHERE S.sid = C.sid AND P.pid = C.pid AND S.sid IN ( SELECT S1.sid FROM Suppliers S1, Parts P1, Catalog C1 WHERE S1.sid = C1.sid AND P1.pid = C1.pid AND P1.color = 'Green') GROUP BY S.sname",
+      "SELECT S.sname, MAX(C.cost) FROM Suppliers S, Parts P, Catalog C WHERE S.sid = C.sid AND P.pid = C.pid AND (P.color = 'Green' OR P.color = 'Red') GROUP BY S.sname",
+      "SELECT DISTINCT P.pname FROM Parts P, Catalog C WHERE P.pid = C.pid AND C.cost < ?",
+      "SELECT DISTINCT S.address FROM Suppliers S, Parts P, Catalog C WHERE S.sid = C.sid AND P.pid = C.pid AND P.pname = ?"
+   };
+
+   private static int runSql (EmbeddedSQL esql, int q, BigDecimal cost, String pname) throws SQLException {
+      PreparedStatement stmt = esql.prepare(SQL[q]);
+      if (q == 0 || q == 5) stmt.setBigDecimal(1, cost);
+      if (q == 6) stmt.setString(1, pname);
+      ResultSet rs = stmt.executeQuery();
+      int rows = 0;
+      while (rs.next())
+         ++rows;
+      stmt.close();
+      return rows;
+   }
+
+   private int runEngine (int q, BigDecimal cost, String pname) {
+      switch (q) {
+         case 0: return catalogRowsCheaperThan(cost);
+         case 1: return partsPerSupplier(0).size();
+         case 2: return partsPerSupplier(3).size();
+         case 3: return greenSuppliers().size();
+         case 4: return maxRedGreenCost().size();
+         case 5: return partsCheaperThan(cost).size();
+         default: return addressesFor(pname).length;
+      }
+   }
+
+   /**
+    * Runs every report through SQL and through the engine, checks that the
+    * row counts agree and prints the timings.
+    *
+    * @param args <dbname> <port> <user> [iterations] [cost] [part name]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            SupplierReports.class.getName () +
+            " <dbname> <port> <user> [iterations] [cost] [part name]");
+         return;
+      }//end if
+
+      int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+      BigDecimal cost = new BigDecimal(args.length > 4 ? args[4] : "10");
+      String pname = args.length > 5 ? args[5] : "Fire Hydrant Cap";
+      EmbeddedSQL esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new EmbeddedSQL (args[0], args[1], args[2], "");
+
+         long t0 = System.nanoTime();
+         SupplierReports engine = new SupplierReports();
+         engine.load(esql);
+         long t1 = System.nanoTime();
+         engine.evaluate();
+         long t2 = System.nanoTime();
+         System.out.printf("Engine load %.2f ms, single pass %.3f ms (%d catalog rows)%n",
+                           (t1 - t0) / 1e6, (t2 - t1) / 1e6, engine._rows);
+
+         System.out.println("\nReport\tSQL rows\tEngine rows\tSQL ms/run\tEngine ms/run\tSpeedup");
+         for (int q = 0; q < SQL.length; ++q) {
+            int sqlRows = 0, engineRows = 0;
+            // one untimed run of each to warm caches and the JIT
+            runSql(esql, q, cost, pname);
+            engine.runEngine(q, cost, pname);
+            long s0 = System.nanoTime();
+            for (int i = 0; i < iterations; ++i)
+               sqlRows = runSql(esql, q, cost, pname);
+            long s1 = System.nanoTime();
+            for (int i = 0; i < iterations; ++i)
+               engineRows = engine.runEngine(q, cost, pname);
+            long s2 = System.nanoTime();
+            double sqlMs = (s1 - s0) / 1e6 / iterations, engineMs = (s2 - s1) / 1e6 / iterations;
+            System.out.printf("%d\t%d\t\t%d%s\t\t%.3f\t\t%.4f\t\t%.0fx%n", q, sqlRows, engineRows,
+                              sqlRows == engineRows ? "" : " (DIFF)", sqlMs, engineMs,
+                              engineMs == 0 ? 0.0 : sqlMs / engineMs);
+         }
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+}//end SupplierReports
@@ -0,0 +1,14 @@
+#!/bin/sh
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# Export classpath with the postgressql driver
+export CLASSPATH=$CLASSPATH:$PWD:$PWD/pg73jdbc3.jar
+
+# compile the java programs
+javac EmbeddedSQL.java SupplierReports.java
+
+#run the report engine against the SQL versions
+#Use your database name, port number and login, then iterations, cost and part name
+java SupplierReports $USER"_DB" $PGPORT $USER 100 10 "Fire Hydrant Cap"
@@ -0,0 +1,509 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Times every statement of a query file under several index configurations,
+ * replacing the grep over psql \timing in measure.sh.
+ *
+ * A configuration is a name plus an index file such as indexes.sql,
+ * ../lab9/index.sql or ../CS166_Project/sql/src/create_index.sql. The
+ * baseline "none" always runs first. For each configuration the runner
+ * creates the indexes, runs ANALYZE, then for each query does the warmup
+ * runs, the measured runs, and one EXPLAIN (ANALYZE, BUFFERS) for the plan.
+ * Afterwards it drops every index the file created.
+ *
+ * Before the baseline, every index named in any of the files is dropped.
+ * The ones that already existed, e.g. after create_index.sql was loaded
+ * into the project database, are read from pg_indexes first and created
+ * again when the runner exits.
+ *
+ * Each run happens inside a transaction that is rolled back, so UPDATE and
+ * DELETE statements in the query file see the same data every time.
+ */
+public class QueryBenchmark {
+
+   private static final Pattern CREATE_INDEX = Pattern.compile(
+      "(?is)^\\s*CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(?:CONCURRENTLY\\s+)?(?:IF\\s+NOT\\s+EXISTS\\s+)?([\\w\".]+)\\s+ON\\b.*");
+   private static final Pattern EXPLAIN_PREFIX = Pattern.compile(
+      "(?is)^\\s*EXPLAIN\\s+(?:\\([^)]*\\)\\s*|ANALY[SZ]E\\s+|VERBOSE\\s+)*");
+   private static final Pattern INDEX_NAME = Pattern.compile(
+      "(?:(\"[^\"]+\"|\\w+)\\.)?(\"[^\"]+\"|\\w+)");
+   private static final Pattern BUFFERS = Pattern.compile(
+      "Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+
+   // reference to physical database connection.
+   private Connection _connection = null;
+
+   private int _warmup = 3;
+   private int _iterations = 10;
+
+   /**
+    * Measurements of one query under one configuration.
+    */
+   static final class Result {
+      double[] millis;      // sorted measured run times
+      long rows;
+      long sharedHit = -1, sharedRead = -1;
+      String plan;
+      String error;
+
+      double mean () {
+         double sum = 0;
+         for (double m : this.millis) sum += m;
+         return sum / this.millis.length;
+      }
+      double stddev () {
+         if (this.millis.length < 2) return 0;
+         double mean = mean(), sq = 0;
+         for (double m : this.millis) sq += (m - mean) * (m - mean);
+         return Math.sqrt(sq / (this.millis.length - 1));
+      }
+      // nearest-rank percentile
+      double percentile (double p) {
+         int rank = (int) Math.ceil(p / 100.0 * this.millis.length);
+         return this.millis[Math.max(0, Math.min(this.millis.length - 1, rank - 1))];
+      }
+   }//end Result
+
+   public QueryBenchmark (String dbname, String dbport, String user, String passwd) throws SQLException {
+      String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+      this._connection = DriverManager.getConnection(url, user, passwd);
+   }//end QueryBenchmark
+
+   /**
+    * Method to close the physical connection if it is open.
+    */
+   public void cleanup(){
+      try{
+         if (this._connection != null){
+            this._connection.close ();
+         }//end if
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end cleanup
+
+   /* ------------------------------- SQL files -------------------------------- */
+
+   /**
+    * Splits a SQL script into statements on semicolons outside quotes and
+    * comments. Leading EXPLAIN options are stripped so the runner times the
+    * query itself.
+    *
+    * @param file the script
+    * @return the statements without the trailing semicolon
+    * @throws java.io.IOException when the file cannot be read
+    */
+   static List<String> readStatements (File file) throws IOException {
+      StringBuilder text = new StringBuilder();
+      BufferedReader in = new BufferedReader(new FileReader(file));
+      try {
+         String line;
+         while ((line = in.readLine()) != null)
+            text.append(line).append('\n');
+      } finally {
+         in.close();
+      }
+
+      List<String> result = new ArrayList<String>();
+      StringBuilder cur = new StringBuilder();
+      boolean quote = false;
+      for (int i = 0; i < text.length(); ++i) {
+         char c = text.charAt(i);
+         if (!quote && c == '-' && i + 1 < text.length() && text.charAt(i + 1) == '-') {
+            while (i < text.length() && text.charAt(i) != '\n') ++i;
+            cur.append('\n');
+            continue;
+         }
+         if (!quote && c == '/' && i + 1 < text.length() && text.charAt(i + 1) == '*') {
+            int end = text.indexOf("*/", i + 2);
+            i = end < 0 ? text.length() : end + 1;
+            cur.append(' ');
+            continue;
+         }
+         if (c == '\'')
+            quote = !quote;
+         if (c == ';' && !quote) {
+            add(result, cur.toString());
+            cur.setLength(0);
+         } else {
+            cur.append(c);
+         }
+      }
+      add(result, cur.toString());
+      return result;
+   }//end readStatements
+
+   private static void add (List<String> statements, String sql) {
+      sql = EXPLAIN_PREFIX.matcher(sql.trim()).replaceFirst("").trim();
+      if (sql.length() > 0)
+         statements.add(sql);
+   }
+
+   /* ------------------------------ configurations ---------------------------- */
+
+   /**
+    * Runs the statements of an index file, then refreshes planner statistics.
+    *
+    * @return the names of the indexes the file creates
+    */
+   private List<String> applyIndexes (List<String> statements) throws SQLException {
+      List<String> names = new ArrayList<String>();
+      Statement stmt = this._connection.createStatement();
+      try {
+         for (String sql : statements) {
+            Matcher m = CREATE_INDEX.matcher(sql);
+            if (m.matches()) {
+               // leftovers from an interrupted earlier run
+               stmt.executeUpdate("DROP INDEX IF EXISTS " + m.group(1));
+               names.add(m.group(1));
+            }
+            stmt.executeUpdate(sql);
+         }
+         stmt.executeUpdate("ANALYZE");
+      } finally {
+         stmt.close();
+      }
+      return names;
+   }//end applyIndexes
+
+   /**
+    * Names of the indexes an index file creates, without running it.
+    */
+   static List<String> indexNames (List<String> statements) {
+      List<String> names = new ArrayList<String>();
+      for (String sql : statements) {
+         Matcher m = CREATE_INDEX.matcher(sql);
+         if (m.matches())
+            names.add(m.group(1));
+      }
+      return names;
+   }
+
+   // a name as pg_indexes stores it: quotes removed, otherwise lower case
+   private static String catalogName (String name) {
+      return name.startsWith("\"") ? name.substring(1, name.length() - 1) : name.toLowerCase();
+   }
+
+   /**
+    * Definitions of those indexes that exist now, by name, so they can be
+    * created again after the run.
+    */
+   private Map<String, String> existingIndexes (List<String> names) throws SQLException {
+      Map<String, String> defs = new LinkedHashMap<String, String>();
+      PreparedStatement inPath = this._connection.prepareStatement(
+         "SELECT indexdef FROM pg_indexes WHERE indexname = ? AND schemaname = ANY (current_schemas(false))");
+      PreparedStatement inSchema = this._connection.prepareStatement(
+         "SELECT indexdef FROM pg_indexes WHERE indexname = ? AND schemaname = ?");
+      try {
+         for (String name : names) {
+            Matcher m = INDEX_NAME.matcher(name);
+            if (!m.matches())
+               continue;
+            PreparedStatement stmt = m.group(1) == null ? inPath : inSchema;
+            stmt.setString(1, catalogName(m.group(2)));
+            if (m.group(1) != null)
+               stmt.setString(2, catalogName(m.group(1)));
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next())
+               defs.put(name, rs.getString(1));
+            rs.close();
+         }
+      } finally {
+         inPath.close();
+         inSchema.close();
+      }
+      return defs;
+   }//end existingIndexes
+
+   /**
+    * Creates the indexes existingIndexes found again. A failure is reported
+    * with the definition, so it can be run by hand, and the rest go on.
+    */
+   private void restoreIndexes (Map<String, String> defs) {
+      if (defs.isEmpty())
+         return;
+      int restored = 0;
+      for (Map.Entry<String, String> e : defs.entrySet()) {
+         try {
+            Statement stmt = this._connection.createStatement();
+            try {
+               stmt.executeUpdate("DROP INDEX IF EXISTS " + e.getKey());
+               stmt.executeUpdate(e.getValue());
+               ++restored;
+            } finally {
+               stmt.close();
+            }
+         } catch (SQLException ex) {
+            System.err.printf("WARNING: could not recreate index %s: %s%n  run by hand: %s;%n",
+                              e.getKey(), ex.getMessage().trim(), e.getValue());
+         }
+      }
+      try {
+         Statement stmt = this._connection.createStatement();
+         try {
+            stmt.executeUpdate("ANALYZE");
+         } finally {
+            stmt.close();
+         }
+      } catch (SQLException ex) {
+         // statistics catch up on the next autovacuum.
+      }
+      System.out.printf("Recreated %d of %d indexes that existed before the run%n", restored, defs.size());
+   }//end restoreIndexes
+
+   private void dropIndexes (List<String> names) throws SQLException {
+      Statement stmt = this._connection.createStatement();
+      try {
+         for (String name : names)
+            stmt.executeUpdate("DROP INDEX IF EXISTS " + name);
+         stmt.executeUpdate("ANALYZE");
+      } finally {
+         stmt.close();
+      }
+   }//end dropIndexes
+
+   /* --------------------------------- running -------------------------------- */
+
+   // runs one statement in the open transaction, returns rows seen; the
+   // caller rolls back once the run is timed
+   private long runOnce (String sql) throws SQLException {
+      Statement stmt = this._connection.createStatement();
+      try {
+         long rows = 0;
+         if (stmt.execute(sql)) {
+            ResultSet rs = stmt.getResultSet();
+            while (rs.next())
+               ++rows;
+            rs.close();
+         } else {
+            rows = stmt.getUpdateCount();
+         }
+         return rows;
+      } finally {
+         stmt.close();
+      }
+   }//end runOnce
+
+   private Result measure (String sql) {
+      Result r = new Result();
+      try {
+         this._connection.setAutoCommit(false);
+         for (int i = 0; i < this._warmup; ++i) {
+            runOnce(sql);
+            this._connection.rollback();
+         }
+         r.millis = new double[this._iterations];
+         for (int i = 0; i < this._iterations; ++i) {
+            long start = System.nanoTime();
+            r.rows = runOnce(sql);
+            r.millis[i] = (System.nanoTime() - start) / 1e6;
+            // outside the timed window, it is one more round trip
+            this._connection.rollback();
+         }
+         Arrays.sort(r.millis);
+
+         Statement stmt = this._connection.createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+            StringBuilder plan = new StringBuilder();
+            while (rs.next()) {
+               String line = rs.getString(1);
+               plan.append(line).append('\n');
+               // the first Buffers line belongs to the top plan node
+               Matcher m = BUFFERS.matcher(line);
+               if (r.sharedHit < 0 && m.find()) {
+                  r.sharedHit = m.group(1) == null ? 0 : Long.parseLong(m.group(1));
+                  r.sharedRead = m.group(2) == null ? 0 : Long.parseLong(m.group(2));
+               }
+            }
+            rs.close();
+            r.plan = plan.toString();
+         } finally {
+            stmt.close();
+            this._connection.rollback();
+         }
+      } catch (SQLException e) {
+         r.error = e.getMessage();
+         try {
+            this._connection.rollback();
+         } catch (SQLException ignored) {
+            // ignored.
+         }
+      } finally {
+         try {
+            this._connection.setAutoCommit(true);
+         } catch (SQLException ignored) {
+            // ignored.
+         }
+      }
+      return r;
+   }//end measure
+
+   /* --------------------------------- output --------------------------------- */
+
+   private static String shorten (String sql, int width) {
+      sql = sql.replaceAll("\\s+", " ");
+      return sql.length() <= width ? sql : sql.substring(0, width - 3) + "...";
+   }
+
+   private static void printDetail (String config, int q, Result r) {
+      if (r.error != null) {
+         System.out.printf("%-12s Q%-3d ERROR %s%n", config, q, r.error.trim());
+         return;
+      }
+      System.out.printf("%-12s Q%-3d mean %9.3f  sd %8.3f  p50 %9.3f  p90 %9.3f  p99 %9.3f  max %9.3f ms  rows %d  buffers hit %d read %d%n",
+                        config, q, r.mean(), r.stddev(), r.percentile(50), r.percentile(90),
+                        r.percentile(99), r.percentile(100), r.rows, r.sharedHit, r.sharedRead);
+   }
+
+   private static void printComparison (List<String> queries, List<String> configs, Result[][] results) {
+      System.out.println("\nMean ms (speedup over none)");
+      StringBuilder head = new StringBuilder(String.format("%-5s", "Query"));
+      for (String c : configs)
+         head.append(String.format("  %22s", c));
+      System.out.println(head.append("  SQL"));
+      for (int q = 0; q < queries.size(); ++q) {
+         StringBuilder row = new StringBuilder(String.format("Q%-4d", q + 1));
+         Result base = results[0][q];
+         for (int c = 0; c < configs.size(); ++c) {
+            Result r = results[c][q];
+            if (r.error != null)
+               row.append(String.format("  %22s", "ERROR"));
+            else if (c == 0 || base.error != null)
+               row.append(String.format("  %22.3f", r.mean()));
+            else
+               row.append(String.format("  %13.3f (%5.2fx)", r.mean(), base.mean() / r.mean()));
+         }
+         System.out.println(row.append("  ").append(shorten(queries.get(q), 60)));
+      }
+   }//end printComparison
+
+   private static void writePlans (File dir, List<String> configs, Result[][] results) throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("cannot create " + dir);
+      for (int c = 0; c < configs.size(); ++c)
+         for (int q = 0; q < results[c].length; ++q) {
+            if (results[c][q].plan == null)
+               continue;
+            PrintWriter out = new PrintWriter(new FileWriter(new File(dir, configs.get(c) + "_Q" + (q + 1) + ".plan")));
+            out.print(results[c][q].plan);
+            out.close();
+         }
+   }
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> <queries.sql> [name=indexes.sql ...]
+    *             [-w warmup] [-n iterations] [-plans dir]
+    */
+   public static void main (String[] args) {
+      List<String> configs = new ArrayList<String>();
+      List<File> indexFiles = new ArrayList<File>();
+      List<String> positional = new ArrayList<String>();
+      int warmup = 3, iterations = 10;
+      File plans = null;
+      configs.add("none");
+      indexFiles.add(null);
+      for (int i = 0; i < args.length; ++i) {
+         if (args[i].equals("-w") && i + 1 < args.length) warmup = Integer.parseInt(args[++i]);
+         else if (args[i].equals("-n") && i + 1 < args.length) iterations = Integer.parseInt(args[++i]);
+         else if (args[i].equals("-plans") && i + 1 < args.length) plans = new File(args[++i]);
+         else if (positional.size() >= 4 && args[i].indexOf('=') > 0) {
+            configs.add(args[i].substring(0, args[i].indexOf('=')));
+            indexFiles.add(new File(args[i].substring(args[i].indexOf('=') + 1)));
+         }
+         else positional.add(args[i]);
+      }
+      if (positional.size() != 4 || iterations < 1) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            QueryBenchmark.class.getName () +
+            " <dbname> <port> <user> <queries.sql> [name=indexes.sql ...] [-w warmup] [-n iterations] [-plans dir]");
+         return;
+      }//end if
+
+      QueryBenchmark bench = null;
+      Map<String, String> existing = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         bench = new QueryBenchmark (positional.get(0), positional.get(1), positional.get(2), "");
+         bench._warmup = warmup;
+         bench._iterations = iterations;
+
+         List<String> queries = readStatements(new File(positional.get(3)));
+
+         // the baseline must not see indexes left behind by create scripts
+         LinkedHashSet<String> named = new LinkedHashSet<String>();
+         for (File f : indexFiles)
+            if (f != null)
+               named.addAll(indexNames(readStatements(f)));
+         List<String> all = new ArrayList<String>(named);
+         existing = bench.existingIndexes(all);
+         if (!existing.isEmpty())
+            System.out.printf("Dropping %d existing indexes for the run; they are recreated on exit%n", existing.size());
+         bench.dropIndexes(all);
+
+         Result[][] results = new Result[configs.size()][queries.size()];
+         for (int c = 0; c < configs.size(); ++c) {
+            List<String> created = new ArrayList<String>();
+            if (indexFiles.get(c) != null)
+               created = bench.applyIndexes(readStatements(indexFiles.get(c)));
+            try {
+               for (int q = 0; q < queries.size(); ++q) {
+                  results[c][q] = bench.measure(queries.get(q));
+                  printDetail(configs.get(c), q + 1, results[c][q]);
+               }
+            } finally {
+               bench.dropIndexes(created);
+            }
+         }
+         printComparison(queries, configs, results);
+         if (plans != null)
+            writePlans(plans, configs, results);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (bench != null){
+            if (existing != null)
+               bench.restoreIndexes(existing);
+            bench.cleanup();
+         }//end if
+      }//end try
+   }//end main
+
+}//end QueryBenchmark
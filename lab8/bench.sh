@@ -0,0 +1,15 @@
+#!/bin/bash
+# Times queries.sql without indexes and with each index file, using warmup
+# and repeated runs instead of a single psql \timing per query.
+# Extra arguments are passed on, e.g. name=../lab9/index.sql -n 20 -plans plans
+# Every index named in an index file is dropped for the run. Those that
+# already existed are recreated on exit; if that fails the definition is
+# printed so it can be run by hand.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+export DB_NAME=$USER"_DB"
+JAR=$DIR/../CS166_Project/java/lib/pg73jdbc3.jar
+
+mkdir -p $DIR/classes
+javac -d $DIR/classes $DIR/QueryBenchmark.java
+
+java -cp $DIR/classes:$JAR QueryBenchmark $DB_NAME $PGPORT $USER $DIR/queries.sql indexes=$DIR/indexes.sql "$@"
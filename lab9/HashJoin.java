@@ -0,0 +1,589 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the join of query.sql straight from the CSV files: STORES JOIN
+ * (SALES JOIN CATALOG), optionally for one state, totalled per state and
+ * item.
+ *
+ * stores.csv and catalog.csv are small and become the build side, two
+ * open-addressing tables keyed on the int storeid and itemid. With a state
+ * filter only that state's stores are put in the store table, so a sale
+ * from any other store misses the probe and is dropped before its item or
+ * price is looked at. sales.csv is then read once as fixed-size chunks of
+ * the mapped file, claimed by worker threads in turn; each worker parses
+ * its rows in place, probes both tables and adds into its own totals, and
+ * the totals are summed when every chunk is done.
+ *
+ * Besides running the join, main can write a larger sales.csv and time the
+ * engine against Postgres running the same join; bench.sh does both for
+ * growing sizes.
+ */
+public class HashJoin {
+
+   static final int NO_ROW = -1;
+
+   // bytes of sales.csv per task
+   static final int CHUNK = 8 << 20;
+   // the longest sales line a chunk may read past its end to finish
+   static final int MAX_LINE = 4096;
+
+   static final String JOIN =
+      "FROM STORES JOIN (SALES JOIN CATALOG ON sales.itemid = catalog.itemid) ON stores.storeid = sales.storeid";
+
+   private static final Pattern RUNTIME = Pattern.compile("(?:Execution Time|Total runtime): ([\\d.]+) ms");
+
+   /**
+    * Open-addressing map from an int key to a non-negative int.
+    */
+   static final class IntTable {
+      private int[] keys;
+      private int[] values;
+      private int size;
+
+      IntTable (int expected) {
+         int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+         this.keys = new int[cap];
+         this.values = new int[cap];
+         Arrays.fill(this.values, NO_ROW);
+      }
+
+      int size () { return this.size; }
+
+      void put (int key, int value) {
+         int slot = find(key);
+         if (this.values[slot] == NO_ROW)
+            ++this.size;
+         this.keys[slot] = key;
+         this.values[slot] = value;
+         if (this.size * 2 > this.keys.length)
+            grow();
+      }
+
+      // returns the value of key, or NO_ROW
+      int get (int key) {
+         return this.values[find(key)];
+      }
+
+      private int find (int key) {
+         int mask = this.keys.length - 1;
+         int slot = (key * 0x9E3779B9) >>> 7 & mask;
+         while (this.values[slot] != NO_ROW && this.keys[slot] != key)
+            slot = (slot + 1) & mask;
+         return slot;
+      }
+
+      private void grow () {
+         int[] oldKeys = this.keys, oldValues = this.values;
+         this.keys = new int[oldKeys.length * 2];
+         this.values = new int[oldKeys.length * 2];
+         Arrays.fill(this.values, NO_ROW);
+         this.size = 0;
+         for (int i = 0; i < oldKeys.length; ++i)
+            if (oldValues[i] != NO_ROW)
+               put(oldKeys[i], oldValues[i]);
+      }
+   }//end IntTable
+
+   /**
+    * Joined rows and revenue in cents per (state, item), at
+    * state * items + item.
+    */
+   static final class Totals {
+      final long[] rows;
+      final long[] cents;
+      long scanned;
+
+      Totals (int groups) {
+         this.rows = new long[groups];
+         this.cents = new long[groups];
+      }
+
+      void add (Totals other) {
+         for (int i = 0; i < this.rows.length; ++i) {
+            this.rows[i] += other.rows[i];
+            this.cents[i] += other.cents[i];
+         }
+         this.scanned += other.scanned;
+      }
+
+      long joined () {
+         long n = 0;
+         for (long r : this.rows) n += r;
+         return n;
+      }
+
+      long revenue () {
+         long n = 0;
+         for (long c : this.cents) n += c;
+         return n;
+      }
+   }//end Totals
+
+   private final IntTable _stores;        // storeid -> state code
+   private final List<String> _states = new ArrayList<String>();
+   private final IntTable _items;         // itemid -> item
+   private final List<Integer> _itemIds = new ArrayList<Integer>();
+   private final List<String> _itemNames = new ArrayList<String>();
+
+   /**
+    * Builds the store and item tables.
+    *
+    * @param stores stores.csv
+    * @param catalog catalog.csv
+    * @param state the only state to keep, or null for all of them
+    */
+   public HashJoin (File stores, File catalog, String state) throws IOException {
+      Map<String, Integer> codes = new HashMap<String, Integer>();
+      this._stores = new IntTable(1024);
+      for (String[] row : readCsv(stores, 3)) {
+         if (state != null && !state.equals(row[2]))
+            continue;
+         Integer code = codes.get(row[2]);
+         if (code == null) {
+            code = this._states.size();
+            codes.put(row[2], code);
+            this._states.add(row[2]);
+         }
+         this._stores.put(Integer.parseInt(row[0].trim()), code);
+      }
+      this._items = new IntTable(64);
+      for (String[] row : readCsv(catalog, 2)) {
+         int id = Integer.parseInt(row[0].trim());
+         this._items.put(id, this._itemIds.size());
+         this._itemIds.add(id);
+         this._itemNames.add(row[1]);
+      }
+   }//end HashJoin
+
+   private static List<String[]> readCsv (File file, int columns) throws IOException {
+      List<String[]> rows = new ArrayList<String[]>();
+      BufferedReader in = new BufferedReader(new FileReader(file));
+      try {
+         in.readLine();   // header
+         String line;
+         while ((line = in.readLine()) != null) {
+            if (line.isEmpty())
+               continue;
+            String[] row = line.split(",", -1);
+            if (row.length < columns)
+               throw new IOException(file + ": expected " + columns + " columns: " + line);
+            rows.add(row);
+         }
+      } finally {
+         in.close();
+      }
+      return rows;
+   }
+
+   public int stores () { return this._stores.size(); }
+
+   private int groups () { return Math.max(1, this._states.size()) * this._itemIds.size(); }
+
+   /* ---------------------------------- probe -------------------------------- */
+
+   /**
+    * Streams sales.csv through the tables on the given number of threads.
+    */
+   public Totals run (File sales, int threads) throws IOException {
+      final RandomAccessFile file = new RandomAccessFile(sales, "r");
+      final FileChannel channel = file.getChannel();
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+         final long size = channel.size();
+         final int chunks = (int) ((size + CHUNK - 1) / CHUNK);
+         final AtomicInteger next = new AtomicInteger();
+         List<Future<Totals>> parts = new ArrayList<Future<Totals>>();
+         for (int t = 0; t < threads; ++t) {
+            parts.add(pool.submit(new Callable<Totals>() {
+               public Totals call () throws IOException {
+                  Totals totals = new Totals(groups());
+                  for (int c = next.getAndIncrement(); c < chunks; c = next.getAndIncrement())
+                     scan(channel, size, c, totals);
+                  return totals;
+               }
+            }));
+         }
+         Totals totals = new Totals(groups());
+         for (Future<Totals> part : parts)
+            totals.add(part.get());
+         return totals;
+      } catch (InterruptedException e) {
+         throw new IOException(e);
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof IOException)
+            throw (IOException) e.getCause();
+         throw new IOException(e.getCause());
+      } finally {
+         pool.shutdownNow();
+         file.close();
+      }
+   }//end run
+
+   /**
+    * Joins the lines that start inside one chunk. The first chunk skips
+    * the header; a chunk starting mid-line leaves that line to the one
+    * before it.
+    */
+   private void scan (FileChannel channel, long size, int chunk, Totals totals) throws IOException {
+      long start = (long) chunk * CHUNK;
+      long end = Math.min(size, start + CHUNK);
+      long from = Math.max(0, start - 1);
+      long to = Math.min(size, end + MAX_LINE);
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+      int limit = buf.limit();
+      int pos = (int) (start - from);
+      int stop = (int) (end - from);
+      if (start == 0 || buf.get(pos - 1) != '\n')
+         pos = nextLine(buf, pos, limit, to < size);
+
+      int items = this._itemIds.size();
+      while (pos < stop) {
+         int i = pos;
+         byte b = buf.get(i);
+         if (b == '\n' || b == '\r') {
+            pos = nextLine(buf, i, limit, to < size);
+            continue;
+         }
+         int store = 0, item = 0;
+         while ((b = buf.get(i++)) != ',')
+            store = store * 10 + digit(b, from + i);
+         while ((b = buf.get(i++)) != ',')
+            item = item * 10 + digit(b, from + i);
+         ++totals.scanned;
+
+         int state = this._stores.get(store);
+         int row = state == NO_ROW ? NO_ROW : this._items.get(item);
+         if (row != NO_ROW) {
+            // price in cents, rounded at the third decimal
+            long cents = 0;
+            int decimals = -1;
+            boolean negative = buf.get(i) == '-';
+            if (negative) ++i;
+            while (i < limit && (b = buf.get(i)) != ',' && b != '\n' && b != '\r') {
+               if (b == '.') {
+                  decimals = 0;
+               } else if (decimals < 2) {
+                  cents = cents * 10 + digit(b, from + i);
+                  if (decimals >= 0) ++decimals;
+               } else if (decimals == 2) {
+                  if (digit(b, from + i) >= 5) ++cents;
+                  decimals = 3;
+               }
+               ++i;
+            }
+            for (decimals = Math.max(decimals, 0); decimals < 2; ++decimals)
+               cents *= 10;
+            int group = state * items + row;
+            ++totals.rows[group];
+            totals.cents[group] += negative ? -cents : cents;
+         }
+         pos = nextLine(buf, i, limit, to < size);
+      }
+   }//end scan
+
+   private static int digit (byte b, long offset) {
+      if (b < '0' || b > '9')
+         throw new IllegalArgumentException("sales.csv: unexpected '" + (char) b + "' at byte " + (offset - 1));
+      return b - '0';
+   }
+
+   private static int nextLine (MappedByteBuffer buf, int i, int limit, boolean more) throws IOException {
+      while (i < limit)
+         if (buf.get(i++) == '\n')
+            return i;
+      if (more)
+         throw new IOException("sales.csv: a line is longer than " + MAX_LINE + " bytes");
+      return limit;
+   }
+
+   /* ---------------------------------- output ------------------------------- */
+
+   private String state (int group) {
+      return this._states.get(group / this._itemIds.size());
+   }
+
+   private int itemId (int group) {
+      return this._itemIds.get(group % this._itemIds.size());
+   }
+
+   private static String money (long cents) {
+      return BigDecimal.valueOf(cents, 2).toPlainString();
+   }
+
+   /**
+    * Prints the totals and the top groups by revenue.
+    */
+   public void print (final Totals totals, int top) {
+      System.out.printf("%d sales rows, %d joined, revenue %s%n",
+                        totals.scanned, totals.joined(), money(totals.revenue()));
+      List<Integer> order = new ArrayList<Integer>();
+      for (int g = 0; g < totals.rows.length; ++g)
+         if (totals.rows[g] > 0)
+            order.add(g);
+      Collections.sort(order, new Comparator<Integer>() {
+         public int compare (Integer a, Integer b) {
+            return Long.compare(totals.cents[b], totals.cents[a]);
+         }
+      });
+      System.out.println("state\titem\trows\trevenue");
+      for (int g : order.subList(0, Math.min(top, order.size())))
+         System.out.printf("%s\t%s\t%d\t%s%n", state(g),
+                           this._itemNames.get(g % this._itemIds.size()), totals.rows[g], money(totals.cents[g]));
+   }//end print
+
+   /**
+    * The totals keyed like the SQL check query: state, tab, itemid.
+    */
+   Map<String, long[]> byGroup (Totals totals) {
+      Map<String, long[]> groups = new HashMap<String, long[]>();
+      for (int g = 0; g < totals.rows.length; ++g)
+         if (totals.rows[g] > 0)
+            groups.put(state(g) + "\t" + itemId(g), new long[] { totals.rows[g], totals.cents[g] });
+      return groups;
+   }
+
+   /* ---------------------------------- scaling ------------------------------ */
+
+   /**
+    * Writes sales.csv repeated the given number of times. Copy c moves each
+    * sale c seconds past midnight of its day, which keeps (storeid, itemid,
+    * time) unique, so the result loads into SALES as it is.
+    */
+   static void scale (File in, int copies, File out) throws IOException {
+      if (copies < 1 || copies > 86400)
+         throw new IllegalArgumentException("copies must be between 1 and 86400");
+      List<String> lines = new ArrayList<String>();
+      String header;
+      BufferedReader reader = new BufferedReader(new FileReader(in));
+      try {
+         header = reader.readLine();
+         String line;
+         while ((line = reader.readLine()) != null)
+            if (!line.isEmpty())
+               lines.add(line);
+      } finally {
+         reader.close();
+      }
+      BufferedWriter writer = new BufferedWriter(new FileWriter(out), 1 << 16);
+      try {
+         writer.write(header);
+         writer.newLine();
+         for (int c = 0; c < copies; ++c) {
+            String time = c == 0 ? "" : String.format(" %02d:%02d:%02d", c / 3600, c / 60 % 60, c % 60);
+            for (String line : lines) {
+               writer.write(line);
+               writer.write(time);
+               writer.newLine();
+            }
+         }
+      } finally {
+         writer.close();
+      }
+   }//end scale
+
+   /* ---------------------------------- benchmark ---------------------------- */
+
+   private static double median (double[] millis) {
+      double[] sorted = millis.clone();
+      Arrays.sort(sorted);
+      return sorted[sorted.length / 2];
+   }
+
+   /**
+    * EXPLAIN ANALYZE of the query.sql statement; returns the server's
+    * execution time in ms and prints the plan when asked.
+    */
+   private static double explain (Connection connection, String where, boolean print) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery("EXPLAIN ANALYZE select * " + JOIN + where);
+         double millis = -1;
+         while (rs.next()) {
+            String line = rs.getString(1);
+            if (print)
+               System.out.println("   " + line);
+            Matcher m = RUNTIME.matcher(line);
+            if (m.find())
+               millis = Double.parseDouble(m.group(1));
+         }
+         rs.close();
+         return millis;
+      } finally {
+         stmt.close();
+      }
+   }
+
+   /**
+    * The engine's totals computed by Postgres.
+    */
+   private static Map<String, long[]> grouped (Connection connection, String where) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(
+            "SELECT COALESCE(stores.state, ''), catalog.itemid, COUNT(*), SUM(sales.price::numeric) " +
+            JOIN + where + " GROUP BY 1, 2");
+         Map<String, long[]> groups = new HashMap<String, long[]>();
+         while (rs.next()) {
+            long cents = new BigDecimal(rs.getString(4)).movePointRight(2)
+               .setScale(0, RoundingMode.HALF_UP).longValue();
+            groups.put(rs.getString(1) + "\t" + rs.getInt(2), new long[] { rs.getLong(3), cents });
+         }
+         rs.close();
+         return groups;
+      } finally {
+         stmt.close();
+      }
+   }
+
+   private static boolean same (Map<String, long[]> a, Map<String, long[]> b) {
+      if (!a.keySet().equals(b.keySet()))
+         return false;
+      for (Map.Entry<String, long[]> e : a.entrySet())
+         if (!Arrays.equals(e.getValue(), b.get(e.getKey())))
+            return false;
+      return true;
+   }
+
+   /**
+    * Times the engine, the query.sql plan and the grouped query for all
+    * states and, if given, one state, and checks the grouped results agree.
+    */
+   static void bench (Connection connection, File stores, File catalog, File sales, String state,
+                      int threads, int runs, boolean plans) throws IOException, SQLException {
+      System.out.println("sales rows\tjoined\tfilter\tengine ms\tpg plan ms\tpg group by ms\tsame");
+      for (String filter : state == null ? new String[] { null } : new String[] { null, state }) {
+         String where = filter == null ? "" : " WHERE stores.state='" + filter.replace("'", "''") + "'";
+         double[] engine = new double[runs], plan = new double[runs], group = new double[runs];
+         HashJoin join = null;
+         Totals totals = null;
+         Map<String, long[]> expected = null;
+         for (int r = -1; r < runs; ++r) {   // run -1 is warmup
+            long t0 = System.nanoTime();
+            join = new HashJoin(stores, catalog, filter);
+            totals = join.run(sales, threads);
+            long t1 = System.nanoTime();
+            double millis = explain(connection, where, plans && r == -1);
+            long t2 = System.nanoTime();
+            expected = grouped(connection, where);
+            long t3 = System.nanoTime();
+            if (r >= 0) {
+               engine[r] = (t1 - t0) / 1e6;
+               plan[r] = millis;
+               group[r] = (t3 - t2) / 1e6;
+            }
+         }
+         System.out.printf("%d\t%d\t%s\t%.1f\t%.1f\t%.1f\t%s%n", totals.scanned, totals.joined(),
+                           filter == null ? "all" : filter, median(engine), median(plan), median(group),
+                           same(join.byGroup(totals), expected) ? "yes" : "NO");
+      }
+   }//end bench
+
+   private static void usage () {
+      String java = "java [-classpath <classpath>] " + HashJoin.class.getName();
+      System.err.println (
+         "Usage:\n" +
+         "   " + java + " <stores.csv> <catalog.csv> <sales.csv> [-state ST] [-threads n] [-top n]\n" +
+         "   " + java + " scale <sales.csv> <copies> <out.csv>\n" +
+         "   " + java + " bench <dbname> <port> <user> <stores.csv> <catalog.csv> <sales.csv>" +
+         " [-state ST] [-threads n] [-n runs] [-plans]");
+   }
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments, see usage()
+    */
+   public static void main (String[] args) {
+      String state = null;
+      int threads = Runtime.getRuntime().availableProcessors();
+      int top = 10, runs = 5;
+      boolean plans = false;
+      List<String> positional = new ArrayList<String>();
+      for (int i = 0; i < args.length; ++i) {
+         if (args[i].equals("-state") && i + 1 < args.length) state = args[++i];
+         else if (args[i].equals("-threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+         else if (args[i].equals("-top") && i + 1 < args.length) top = Integer.parseInt(args[++i]);
+         else if (args[i].equals("-n") && i + 1 < args.length) runs = Integer.parseInt(args[++i]);
+         else if (args[i].equals("-plans")) plans = true;
+         else positional.add(args[i]);
+      }
+
+      Connection connection = null;
+      try {
+         if (positional.size() == 4 && positional.get(0).equals("scale")) {
+            scale(new File(positional.get(1)), Integer.parseInt(positional.get(2)), new File(positional.get(3)));
+         } else if (positional.size() == 7 && positional.get(0).equals("bench")) {
+            // use postgres JDBC driver.
+            Class.forName ("org.postgresql.Driver").newInstance ();
+            String url = "jdbc:postgresql://localhost:" + positional.get(2) + "/" + positional.get(1);
+            connection = DriverManager.getConnection(url, positional.get(3), "");
+            bench(connection, new File(positional.get(4)), new File(positional.get(5)),
+                  new File(positional.get(6)), state, threads, runs, plans);
+         } else if (positional.size() == 3) {
+            long t0 = System.nanoTime();
+            HashJoin join = new HashJoin(new File(positional.get(0)), new File(positional.get(1)), state);
+            long t1 = System.nanoTime();
+            Totals totals = join.run(new File(positional.get(2)), threads);
+            long t2 = System.nanoTime();
+            join.print(totals, top);
+            System.out.printf("build %.1f ms (%d stores), probe %.1f ms on %d threads%n",
+                              (t1 - t0) / 1e6, join.stores(), (t2 - t1) / 1e6, threads);
+         } else {
+            usage();
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         try {
+            if (connection != null)
+               connection.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end main
+
+}//end HashJoin
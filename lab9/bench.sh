@@ -0,0 +1,33 @@
+#!/bin/bash
+# Compares HashJoin with the Postgres plans of query.sql as SALES grows.
+# For each scale, sales.csv is repeated that many times, loaded into SALES
+# and joined both ways. Set SCALES to change the sizes, INDEXES= to skip
+# index.sql. Both queries of query.sql run (all states and CA); extra
+# arguments are passed on, e.g. -state NY -n 3 -plans
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+export DB_NAME=$USER"_DB"
+JAR=$DIR/../CS166_Project/java/lib/pg73jdbc3.jar
+SCALES=${SCALES:-"1 2 4 8 16 32"}
+INDEXES=${INDEXES-$DIR/index.sql}
+WORK=/tmp/$USER/lab9
+PSQL="psql -q -h localhost -p $PGPORT $DB_NAME"
+
+mkdir -p $DIR/classes $WORK
+javac -d $DIR/classes $DIR/HashJoin.java || exit 1
+
+$PSQL -f $DIR/schema.sql
+$PSQL -c "\copy stores(storeid, name, state, latitude, longitude) FROM '$DIR/stores.csv' DELIMITER ',' CSV HEADER"
+$PSQL -c "\copy catalog(itemid, itemname) FROM '$DIR/catalog.csv' DELIMITER ',' CSV HEADER"
+if [ -n "$INDEXES" ]; then
+   $PSQL -f $INDEXES
+fi
+
+for n in $SCALES; do
+   echo "== sales.csv x $n"
+   java -cp $DIR/classes HashJoin scale $DIR/sales.csv $n $WORK/sales.csv || exit 1
+   $PSQL -c "TRUNCATE sales"
+   $PSQL -c "\copy sales(storeid, itemid, price, time) FROM '$WORK/sales.csv' DELIMITER ',' CSV HEADER"
+   $PSQL -c "ANALYZE"
+   java -cp $DIR/classes:$JAR HashJoin bench $DB_NAME $PGPORT $USER $DIR/stores.csv $DIR/catalog.csv $WORK/sales.csv -state CA "$@"
+done
+rm -f $WORK/sales.csv